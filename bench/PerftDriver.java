@@ -0,0 +1,420 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * perft driver: counts leaf positions of the tree of possible moves for board from file in the format of input.txt.
+ * prints number of leaves and speed for every depth up to given one, white moves first.
+ * with --validate every position of the tree is also checked: moves generated for every piece
+ * must agree with counts of Board.getPiecePossibleCounts.
+ * with --replay=N random game of N plies is replayed and taken back on board with tracked counts,
+ * counts of all pieces are compared with counts recalculated from scratch after every step.
+ * with --freeze board is frozen and its snapshot is queried from several threads at once,
+ * counts of all pieces and of pieces that are not on the board must agree with counts of the board.
+ * compile together with Main.java (classes of solution are package-private):
+ * javac -d out src/Main.java bench/PerftDriver.java
+ * java -cp out PerftDriver input.txt 4 [--validate] [--replay=1000] [--freeze]
+ */
+public final class PerftDriver {
+    /**
+     * argument that turns on validation of generated moves.
+     */
+    private static final String VALIDATE = "--validate";
+    /**
+     * prefix of argument that replays random game of specified number of plies, e.g. --replay=1000.
+     */
+    private static final String REPLAY = "--replay=";
+    /**
+     * argument that turns on check of frozen board queried by concurrent readers.
+     */
+    private static final String FREEZE = "--freeze";
+    /**
+     * number of threads that query frozen board.
+     */
+    private static final int READERS = 8;
+    /**
+     * seed of replayed game, games are the same between runs.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * entrypoint.
+     * @param args file with board, depth, optional --validate, --replay=N and --freeze
+     * @throws Exception if board can not be read or validation fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: PerftDriver <input file> <depth> [" + VALIDATE + "] [" + REPLAY + "N] ["
+                    + FREEZE + "]");
+            System.exit(2);
+        }
+        Board board = read(args[0]);
+        int depth = Integer.parseInt(args[1]);
+
+        System.out.println(String.format(Locale.ROOT, "%5s %16s %12s %14s", "depth", "leaves", "ms", "leaves/s"));
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long leaves = board.perft(PieceColor.WHITE, d);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            System.out.println(String.format(Locale.ROOT, "%5d %16d %12.1f %14.0f",
+                    d, leaves, elapsed / 1e6, leaves * 1e9 / elapsed));
+        }
+
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals(VALIDATE)) {
+                long positions = validate(board, PieceColor.WHITE, depth, new MoveList());
+                System.out.println("validated " + positions + " positions");
+            } else if (args[i].startsWith(REPLAY)) {
+                replay(read(args[0]), read(args[0]), Integer.parseInt(args[i].substring(REPLAY.length())));
+            } else if (args[i].equals(FREEZE)) {
+                checkFrozen(board);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * reads board from file in the format of input.txt, input is expected to be valid.
+     * @param fileName name of file
+     * @return Board with all pieces placed
+     * @throws Exception if file can not be read or board is invalid
+     */
+    private static Board read(String fileName) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            Board board = new Board(Integer.parseInt(reader.readLine().trim()));
+            int count = Integer.parseInt(reader.readLine().trim());
+            for (int i = 0; i < count; i++) {
+                String[] parts = reader.readLine().trim().split(" ");
+                board.addPiece(PieceType.valueOf(parts[0].toUpperCase(Locale.ROOT)), PieceColor.parse(parts[1]),
+                        Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            }
+            board.checkKings();
+            return board;
+        }
+    }
+
+    /**
+     * walks the tree and checks moves generated in every position against counts.
+     * @param board board in current position
+     * @param sideToMove color that moves in current position
+     * @param depth number of remaining plies
+     * @param moves buffer shared by all plies
+     * @return number of checked positions
+     */
+    private static long validate(Board board, PieceColor sideToMove, int depth, MoveList moves) {
+        int size = board.getSize();
+        int start = moves.size();
+        board.generateAllMoves(sideToMove, moves);
+        int end = moves.size();
+
+        // moves and captures generated from every cell, keyed by (x - 1) * size + (y - 1)
+        int[] generated = new int[size * size];
+        int[] captures = new int[size * size];
+        for (int i = start; i < end; i++) {
+            long move = moves.get(i);
+            int cell = (MoveList.fromX(move) - 1) * size + MoveList.fromY(move) - 1;
+            generated[cell]++;
+            captures[cell] += MoveList.isCapture(move) ? 1 : 0;
+        }
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                ChessPiece piece = board.getPiece(new PiecePosition(x, y));
+                if (piece == null || piece.getColor() != sideToMove) {
+                    continue;
+                }
+                long counts = board.getPiecePossibleCounts(piece);
+                int cell = (x - 1) * size + y - 1;
+                if (MoveCounts.moves(counts) != generated[cell] || MoveCounts.captures(counts) != captures[cell]) {
+                    throw new IllegalStateException("generated " + generated[cell] + " moves and " + captures[cell]
+                            + " captures, counted " + MoveCounts.moves(counts) + " and "
+                            + MoveCounts.captures(counts) + " for " + piece.getType() + " at " + piece.getPosition());
+                }
+            }
+        }
+
+        long positions = 1;
+        if (depth > 1) {
+            for (int i = start; i < end; i++) {
+                byte captured = board.makeMove(moves.get(i));
+                positions += validate(board, sideToMove.opposite(), depth - 1, moves);
+                board.unmakeMove(moves.get(i), captured);
+            }
+        }
+        moves.truncate(start);
+        return positions;
+    }
+
+    /**
+     * replays random game on board with tracked counts: plies are made by movePiece
+     * and taken back by movePiece and addPiece in reverse order. the same changes are made on untracked board,
+     * after every change counts of all pieces on both boards must agree.
+     * prints time per step of both boards: the move and query of counts of pieces on changed cells.
+     * time of query of all pieces, which is needed only for comparison, is printed separately
+     * @param tracked board whose counts are updated incrementally
+     * @param recalculated the same board, its counts are recalculated for every query
+     * @param plies number of plies of the game, it ends earlier if side to move has no moves
+     * @throws Exception if counts do not agree
+     */
+    private static void replay(Board tracked, Board recalculated, int plies) throws Exception {
+        tracked.trackCounts();
+        int size = tracked.getSize();
+        // occupied cells packed as (x - 1) * size + (y - 1), and index of every occupied cell in this list
+        int[] cells = new int[size * size];
+        int[] indices = new int[size * size];
+        int count = 0;
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                if (tracked.getPiece(new PiecePosition(x, y)) != null) {
+                    indices[(x - 1) * size + y - 1] = count;
+                    cells[count++] = (x - 1) * size + y - 1;
+                }
+            }
+        }
+        long[] actual = new long[count];
+        long[] expected = new long[count];
+
+        Random random = new Random(SEED);
+        MoveList moves = new MoveList();
+        long[] played = new long[plies];
+        ChessPiece[] captured = new ChessPiece[plies];
+        // time of tracked and recalculated steps, then of their queries of all pieces
+        long[] nanos = new long[4];
+        PieceColor sideToMove = PieceColor.WHITE;
+        int made = 0;
+        for (; made < plies; made++) {
+            moves.clear();
+            tracked.generateAllMoves(sideToMove, moves);
+            if (moves.size() == 0) {
+                break;
+            }
+            long move = moves.get(random.nextInt(moves.size()));
+            PiecePosition from = new PiecePosition(MoveList.fromX(move), MoveList.fromY(move));
+            PiecePosition to = new PiecePosition(MoveList.toX(move), MoveList.toY(move));
+            played[made] = move;
+            captured[made] = tracked.getPiece(to);
+
+            int fromCell = (from.getX() - 1) * size + from.getY() - 1;
+            int toCell = (to.getX() - 1) * size + to.getY() - 1;
+            if (captured[made] != null) {  // captured cell leaves the list, the last cell takes its place
+                count--;
+                cells[indices[toCell]] = cells[count];
+                indices[cells[count]] = indices[toCell];
+            }
+            cells[indices[fromCell]] = toCell;
+            indices[toCell] = indices[fromCell];
+
+            step(tracked, recalculated, from, to, null, cells, count, actual, expected, nanos);
+            sideToMove = sideToMove.opposite();
+        }
+        for (int i = made - 1; i >= 0; i--) {
+            PiecePosition from = new PiecePosition(MoveList.toX(played[i]), MoveList.toY(played[i]));
+            PiecePosition to = new PiecePosition(MoveList.fromX(played[i]), MoveList.fromY(played[i]));
+            int fromCell = (from.getX() - 1) * size + from.getY() - 1;
+            int toCell = (to.getX() - 1) * size + to.getY() - 1;
+            cells[indices[fromCell]] = toCell;
+            indices[toCell] = indices[fromCell];
+            if (captured[i] != null) {
+                indices[fromCell] = count;
+                cells[count++] = fromCell;
+            }
+            step(tracked, recalculated, from, to, captured[i], cells, count, actual, expected, nanos);
+        }
+
+        int steps = Math.max(1, 2 * made);
+        System.out.println(String.format(Locale.ROOT, "replayed %d plies and took them back, %d pieces: "
+                + "tracked %.0f ns/step, recalculated %.0f ns/step (move and counts of changed cells), "
+                + "all pieces: tracked %.0f ns, recalculated %.0f ns",
+                made, count, (double) nanos[0] / steps, (double) nanos[1] / steps,
+                (double) nanos[2] / steps, (double) nanos[3] / steps));
+    }
+
+    /**
+     * moves piece on both boards and compares counts of all pieces.
+     * only the move and counts of pieces on changed cells are timed as the step
+     * @param tracked board whose counts are updated incrementally
+     * @param recalculated board whose counts are recalculated
+     * @param from cell of moved piece
+     * @param to destination cell
+     * @param restored piece put back on from after the move when capture is taken back, null otherwise
+     * @param cells occupied cells packed as (x - 1) * size + (y - 1)
+     * @param count number of occupied cells
+     * @param actual buffer for counts of tracked board
+     * @param expected buffer for counts of recalculated board
+     * @param nanos time of tracked and recalculated steps and of their queries of all pieces, this step is added
+     * @throws Exception if counts do not agree
+     */
+    private static void step(Board tracked, Board recalculated, PiecePosition from, PiecePosition to,
+                             ChessPiece restored, int[] cells, int count, long[] actual, long[] expected,
+                             long[] nanos) throws Exception {
+        long start = System.nanoTime();
+        long changed = move(tracked, from, to, restored);
+        long middle = System.nanoTime();
+        changed -= move(recalculated, from, to, restored);
+        nanos[0] += middle - start;
+        nanos[1] += System.nanoTime() - middle;
+        if (changed != 0) {
+            throw new IllegalStateException("counts of changed cells do not agree after move from " + from
+                    + " to " + to);
+        }
+
+        start = System.nanoTime();
+        counts(tracked, cells, count, actual);
+        middle = System.nanoTime();
+        counts(recalculated, cells, count, expected);
+        nanos[2] += middle - start;
+        nanos[3] += System.nanoTime() - middle;
+
+        for (int i = 0; i < count; i++) {
+            if (actual[i] != expected[i]) {
+                throw new IllegalStateException("tracked moves " + MoveCounts.moves(actual[i]) + " and captures "
+                        + MoveCounts.captures(actual[i]) + ", recalculated " + MoveCounts.moves(expected[i])
+                        + " and " + MoveCounts.captures(expected[i]) + " at cell " + cells[i]
+                        + " after move from " + from + " to " + to);
+            }
+        }
+    }
+
+    /**
+     * moves piece and puts back captured one if needed, then queries counts of pieces on changed cells.
+     * @param board changed board
+     * @param from cell of moved piece
+     * @param to destination cell
+     * @param restored piece put back on from after the move, null if there is none
+     * @return hash of counts of moved and restored pieces, equal for boards that agree on them
+     * @throws Exception if move is invalid
+     */
+    private static long move(Board board, PiecePosition from, PiecePosition to, ChessPiece restored)
+            throws Exception {
+        long counts = board.getPiecePossibleCounts(board.movePiece(from, to));
+        if (restored != null) {
+            board.addPiece(restored);
+            counts = counts * 31 + board.getPiecePossibleCounts(restored);
+        }
+        return counts;
+    }
+
+    /**
+     * queries counts of pieces on cells.
+     * @param board queried board
+     * @param cells occupied cells packed as (x - 1) * size + (y - 1)
+     * @param count number of occupied cells
+     * @param counts destination, counts packed by MoveCounts
+     */
+    private static void counts(Board board, int[] cells, int count, long[] counts) {
+        int size = board.getSize();
+        for (int i = 0; i < count; i++) {
+            counts[i] = board.getPiecePossibleCounts(board.getPiece(new PiecePosition(cells[i] / size + 1,
+                    cells[i] % size + 1)));
+        }
+    }
+
+    /**
+     * freezes board and queries its snapshot from several threads at once.
+     * every thread asks for counts of every cell: of the piece placed there, and of a piece of every type and color
+     * as if it was placed there, starting at its own cell so that threads read different parts at the same time
+     * @param board board with all pieces placed, it is queried only by this thread
+     * @throws Exception if counts do not agree
+     */
+    private static void checkFrozen(Board board) throws Exception {
+        FrozenBoard frozen = board.freeze();
+        int size = board.getSize();
+        PieceType[] types = PieceType.values();
+        PieceColor[] colors = PieceColor.values();
+        // counts of the board for every cell: of its piece, then of every type and color
+        int probes = 1 + types.length * colors.length;
+        long[] expected = new long[size * size * probes];
+        int pieces = 0;
+        for (int cell = 0; cell < size * size; cell++) {
+            ChessPiece piece = board.getPiece(new PiecePosition(cell / size + 1, cell % size + 1));
+            if (piece != null) {
+                expected[cell * probes] = board.getPiecePossibleCounts(piece);
+                pieces++;
+            }
+            for (int i = 1; i < probes; i++) {
+                expected[cell * probes + i] = board.getPiecePossibleCounts(types[(i - 1) / colors.length],
+                        colors[(i - 1) % colors.length], cell / size + 1, cell % size + 1);
+            }
+        }
+        if (frozen.getPiecesCount() != pieces) {
+            throw new IllegalStateException("frozen board has " + frozen.getPiecesCount() + " pieces, board has "
+                    + pieces);
+        }
+
+        ExecutorService readers = Executors.newFixedThreadPool(READERS);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < READERS; t++) {
+                int first = (int) ((long) size * size * t / READERS);
+                results.add(readers.submit(() -> query(frozen, expected, probes, first)));
+            }
+            long queries = 0;
+            for (Future<Long> result: results) {
+                queries += result.get();
+            }
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            System.out.println(String.format(Locale.ROOT, "queried frozen board from %d threads: %d pieces, "
+                    + "%d queries agree with board, %.0f ns/query", READERS, pieces, queries,
+                    (double) elapsed * READERS / queries));
+        } finally {
+            readers.shutdown();
+        }
+    }
+
+    /**
+     * queries counts of all cells of frozen board, cells are visited cyclically from specified one.
+     * @param frozen queried snapshot
+     * @param expected counts of the board for every cell and probe
+     * @param probes number of queries of every cell
+     * @param first index of the first visited cell
+     * @return number of queries
+     */
+    private static long query(FrozenBoard frozen, long[] expected, int probes, int first) {
+        int size = frozen.getSize();
+        PieceType[] types = PieceType.values();
+        PieceColor[] colors = PieceColor.values();
+        long queries = 0;
+        for (int i = 0; i < size * size; i++) {
+            int cell = (first + i) % (size * size);
+            PiecePosition position = new PiecePosition(cell / size + 1, cell % size + 1);
+            ChessPiece piece = frozen.getPiece(position);
+            if (piece != null) {
+                check(frozen.getPiecePossibleCounts(piece), expected[cell * probes], piece.getType(), position);
+                queries++;
+            }
+            for (int probe = 1; probe < probes; probe++) {
+                PieceType type = types[(probe - 1) / colors.length];
+                long counts = frozen.getPiecePossibleCounts(type, colors[(probe - 1) % colors.length],
+                        position.getX(), position.getY());
+                check(counts, expected[cell * probes + probe], type, position);
+                queries++;
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * compares counts of frozen board with counts of the board.
+     * @param actual counts of frozen board
+     * @param expected counts of the board
+     * @param type type of queried piece
+     * @param position cell of queried piece
+     */
+    private static void check(long actual, long expected, PieceType type, PiecePosition position) {
+        if (actual != expected) {
+            throw new IllegalStateException("frozen board counts " + MoveCounts.moves(actual) + " moves and "
+                    + MoveCounts.captures(actual) + " captures, board " + MoveCounts.moves(expected) + " and "
+                    + MoveCounts.captures(expected) + " for " + type + " at " + position);
+        }
+    }
+
+    private PerftDriver() { }  // utility class
+}
@@ -0,0 +1,80 @@
+package chess;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * measures Board.addPiece: every invocation places all generated pieces on empty boards.
+ * boards are created once and reset before every invocation, so neither is measured
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AddPieceBenchmark {
+    /**
+     * minimal number of pieces placed by one invocation.
+     * pieces of small boards are placed on several boards, so that reset and timer do not dominate invocation
+     */
+    private static final int MINIMAL_PIECES = 10_000;
+
+    /**
+     * boards filled by one invocation.
+     */
+    private Board[] boards;
+
+    /**
+     * creates boards of generated size.
+     * @param generated GeneratedBoard, placed pieces
+     * @throws InvalidBoardSizeException never, generated sizes are valid
+     */
+    @Setup(Level.Trial)
+    public void createBoards(GeneratedBoard generated) throws InvalidBoardSizeException {
+        int count = (MINIMAL_PIECES + generated.pieces.size() - 1) / generated.pieces.size();
+        this.boards = new Board[count];
+        for (int i = 0; i < count; i++) {
+            this.boards[i] = new Board(generated.size);
+        }
+    }
+
+    /**
+     * removes pieces placed by previous invocation.
+     */
+    @Setup(Level.Invocation)
+    public void resetBoards() {
+        for (Board board: this.boards) {
+            board.reset();
+        }
+    }
+
+    /**
+     * places all generated pieces on every board.
+     * @param generated GeneratedBoard, placed pieces
+     * @param counter PieceCounter, number of placed pieces
+     * @throws Exception if pieces are invalid
+     */
+    @Benchmark
+    public void addPiece(GeneratedBoard generated, PieceCounter counter) throws Exception {
+        List<ChessPiece> pieces = generated.pieces;
+        for (Board board: this.boards) {
+            for (ChessPiece piece: pieces) {
+                board.addPiece(piece);
+            }
+        }
+        counter.pieces += (long) this.boards.length * pieces.size();
+    }
+}
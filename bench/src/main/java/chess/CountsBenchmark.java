@@ -0,0 +1,77 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * measures counting of moves and captures of all generated pieces of one type on filled board.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CountsBenchmark {
+    /**
+     * type of evaluated pieces.
+     */
+    @Param({"PAWN", "KING", "KNIGHT", "ROOK", "QUEEN", "BISHOP"})
+    public String type;
+
+    /**
+     * board with all generated pieces placed.
+     */
+    private Board board;
+    /**
+     * evaluated pieces.
+     */
+    private ChessPiece[] pieces;
+
+    /**
+     * fills board and selects pieces of evaluated type.
+     * @param generated GeneratedBoard, placed pieces
+     * @throws Exception if pieces are invalid
+     */
+    @Setup(Level.Trial)
+    public void fill(GeneratedBoard generated) throws Exception {
+        this.board = generated.fill();
+        PieceType pieceType = PieceType.valueOf(this.type);
+        List<ChessPiece> selected = new ArrayList<>();
+        for (ChessPiece piece: generated.pieces) {
+            if (piece.getType() == pieceType) {
+                selected.add(piece);
+            }
+        }
+        this.pieces = selected.toArray(new ChessPiece[0]);
+    }
+
+    /**
+     * counts moves and captures of every evaluated piece.
+     * @param counter PieceCounter, number of evaluated pieces
+     * @return long, sum of counts, so that JIT can not drop counting
+     */
+    @Benchmark
+    public long counts(PieceCounter counter) {
+        long result = 0;
+        for (ChessPiece piece: this.pieces) {
+            result += this.board.getPiecePossibleMoveCount(piece) + this.board.getPiecePossibleCapturesCount(piece);
+        }
+        counter.pieces += this.pieces.length;
+        return result;
+    }
+}
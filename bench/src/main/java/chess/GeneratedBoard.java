@@ -0,0 +1,138 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * generated valid board shared by benchmarks: exactly one king of each color and random other pieces.
+ * boards are generated from fixed seed, so they are the same between runs
+ */
+@State(Scope.Benchmark)
+public class GeneratedBoard {
+    /**
+     * seed for generated boards.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * size of board.
+     */
+    @Param({"8", "100", "1000"})
+    public int size;
+    /**
+     * density of board: sparse, medium or full.
+     */
+    @Param({"sparse", "medium", "full"})
+    public String density;
+
+    /**
+     * pieces in input order.
+     */
+    List<ChessPiece> pieces;
+    /**
+     * board as content of input.txt.
+     */
+    byte[] input;
+
+    /**
+     * generates pieces and input of board with parameters of benchmark.
+     */
+    @Setup(Level.Trial)
+    public void generate() {
+        this.pieces = generate(this.size, occupiedPart(this.density), new Random(SEED));
+        this.input = format(this.size, this.pieces).getBytes();
+    }
+
+    /**
+     * used to create new board with all generated pieces placed.
+     * @return Board
+     * @throws Exception if pieces are invalid
+     */
+    Board fill() throws Exception {
+        Board board = new Board(this.size);
+        for (ChessPiece piece: this.pieces) {
+            board.addPiece(piece);
+        }
+        return board;
+    }
+
+    /**
+     * part of cells occupied by pieces for density.
+     * @param density name of density
+     * @return double
+     */
+    private static double occupiedPart(String density) {
+        switch (density) {
+            case "sparse":
+                return 0.01;
+            case "medium":
+                return 0.25;
+            case "full":
+                return 1.0;
+            default:
+                throw new IllegalArgumentException("Unknown density " + density);
+        }
+    }
+
+    /**
+     * generates valid board: exactly one king of each color and random other pieces.
+     * @param size size of board
+     * @param density part of cells occupied by pieces
+     * @param random source of randomness
+     * @return list of pieces in input order
+     */
+    static List<ChessPiece> generate(int size, double density, Random random) {
+        int cellsCount = size * size;
+        int piecesCount = Math.max(2, (int) (cellsCount * density));
+        // partial Fisher-Yates shuffle of all cells
+        int[] cells = new int[cellsCount];
+        for (int i = 0; i < cellsCount; i++) {
+            cells[i] = i;
+        }
+        for (int i = 0; i < piecesCount; i++) {
+            int j = i + random.nextInt(cellsCount - i);
+            int swap = cells[i];
+            cells[i] = cells[j];
+            cells[j] = swap;
+        }
+
+        PieceType[] others = {PieceType.PAWN, PieceType.KNIGHT, PieceType.ROOK, PieceType.QUEEN, PieceType.BISHOP};
+        List<ChessPiece> pieces = new ArrayList<>(piecesCount);
+        for (int i = 0; i < piecesCount; i++) {
+            PiecePosition position = new PiecePosition(cells[i] / size + 1, cells[i] % size + 1);
+            if (i < 2) {
+                pieces.add(PieceType.KING.create(position, i == 0 ? PieceColor.WHITE : PieceColor.BLACK));
+            } else {
+                PieceColor color = random.nextBoolean() ? PieceColor.WHITE : PieceColor.BLACK;
+                pieces.add(others[random.nextInt(others.length)].create(position, color));
+            }
+        }
+        Collections.shuffle(pieces, random);
+        return pieces;
+    }
+
+    /**
+     * formats pieces as content of input.txt.
+     * @param size size of board
+     * @param pieces pieces in input order
+     * @return String
+     */
+    static String format(int size, List<ChessPiece> pieces) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(size).append('\n').append(pieces.size()).append('\n');
+        for (ChessPiece piece: pieces) {
+            String color = piece.getColor() == PieceColor.WHITE ? "White" : "Black";
+            builder.append(piece.getClass().getSimpleName()).append(' ').append(color).append(' ')
+                    .append(piece.getPosition().toString()).append('\n');
+        }
+        return builder.toString();
+    }
+}
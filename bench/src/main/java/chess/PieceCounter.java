@@ -0,0 +1,29 @@
+package chess;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * number of pieces handled by benchmark.
+ * one invocation handles many pieces, JMH reports time per piece as secondary result "pieces"
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PieceCounter {
+    /**
+     * pieces handled during iteration.
+     */
+    public long pieces;
+
+    /**
+     * used to start counting of next iteration.
+     */
+    @Setup(Level.Iteration)
+    public void clean() {
+        this.pieces = 0;
+    }
+}
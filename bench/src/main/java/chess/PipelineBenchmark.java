@@ -0,0 +1,63 @@
+package chess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * measures the whole pipeline of Main.main: parsing, validation, board filling, evaluation and output.
+ * input.txt and output.txt are replaced by in-memory streams, so disk is not measured
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+    /**
+     * engine with default options, the one used by Main.
+     */
+    private ChessEngine engine;
+    /**
+     * destination of results, reused between invocations.
+     */
+    private ByteArrayOutputStream output;
+
+    /**
+     * creates engine and output.
+     */
+    @Setup(Level.Trial)
+    public void createEngine() {
+        this.engine = new ChessEngine();
+        this.output = new ByteArrayOutputStream();
+    }
+
+    /**
+     * evaluates generated input and writes results.
+     * @param generated GeneratedBoard, evaluated input
+     * @return int, length of output, so that JIT can not drop evaluation
+     * @throws IOException never, streams are in memory
+     */
+    @Benchmark
+    public int pipeline(GeneratedBoard generated) throws IOException {
+        this.output.reset();
+        try (ResultWriter writer = new StreamResultWriter(this.output)) {
+            this.engine.evaluate(new ByteArrayInputStream(generated.input)).writeTo(writer);
+        }
+        return this.output.size();
+    }
+}
@@ -1,974 +1,6680 @@
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 
 public final class Main {
     /**
-     * represents chess board.
-     */
-    private static Board chessBoard;
-
-    /**
-     * file input.
+     * entrypoint.
+     * reads board from input.txt and writes counts (or error) into output.txt
+     * @param args command line arguments
      */
-    private static Scanner scanner;
+    public static void main(String[] args) throws IOException {
+        RunOptions options = RunOptions.parse(args);
+        if (options.getDaemonPort() >= 0) {
+            serve(options);
+            return;
+        }
+        ByteBuffer mapped = null;  // memory-mapped input.txt, null if it is read as stream
+        InputStream input;
+        if (options.isMappedInput()) {
+            mapped = map("input.txt");
+            input = new ByteBufferInputStream(mapped.duplicate());
+        } else {
+            input = new FileInputStream("input.txt");
+        }
+        ResultWriter fout;  // file output
+        if (options.isMappedOutput()) {
+            fout = new MappedResultWriter(new RandomAccessFile("output.txt", "rw"));
+        } else {
+            fout = new StreamResultWriter(new FileOutputStream("output.txt"));
+        }
 
-    static {
         try {
-            scanner = new Scanner(new File("input.txt"));
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+            if (options.isBatch()) {
+                BoardPool pool = new BoardPool(Runtime.getRuntime().availableProcessors());
+                new BatchProcessor(new ChessEngine(options, pool)).process(input, fout);
+            } else if (mapped != null) {
+                new ChessEngine(options).evaluate(mapped).writeTo(fout);
+            } else {
+                new ChessEngine(options).evaluate(input).writeTo(fout);
+            }
+        } finally {
+            input.close();
+            fout.close();
+        }
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.printSummary(System.err);
         }
     }
 
     /**
-     * file output.
+     * runs local server until the process is stopped.
+     * @param options RunOptions, options with port of the server
+     * @throws IOException if port can not be bound
      */
-    private static FileOutputStream fout;
+    private static void serve(RunOptions options) throws IOException {
+        BoardPool pool = new BoardPool(Runtime.getRuntime().availableProcessors());
+        try (DaemonServer server = new DaemonServer(new ChessEngine(options, pool), options.getDaemonPort())) {
+            System.err.println("Listening on port " + server.getPort());
+            server.serve();
+        }
+    }
 
-    static {
-        try {
-            fout = new FileOutputStream("output.txt");
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+    /**
+     * maps the whole file into memory for reading.
+     * @param fileName String, name of file
+     * @return ByteBuffer, mapped content of file
+     * @throws IOException if file can not be opened or mapped
+     */
+    private static ByteBuffer map(String fileName) throws IOException {
+        // mapping stays valid after the file is closed
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         }
     }
 
+    private Main() { }  // so that Utility class does not have a public or default constructor, according to CheckStyle
+}
+
+
+/**
+ * evaluates chess positions in-process, Main is a thin wrapper around it.
+ * engine keeps no state between calls, so single instance can be shared between threads
+ */
+final class ChessEngine {
     /**
      * number of chess piece type in input string.
      */
-    private static final int TYPE_INDEX = 0;
+    static final int TYPE_INDEX = 0;
     /**
      * number of chess piece color in input string.
      */
-    private static final int COLOR_INDEX = 1;
+    static final int COLOR_INDEX = 1;
     /**
      * number of chess piece x-coordinate in input string.
      */
-    private static final int X_COORDINATE_INDEX = 2;
+    static final int X_COORDINATE_INDEX = 2;
     /**
      * number of chess piece y-coordinate in input string.
      */
-    private static final int Y_COORDINATE_INDEX = 3;
+    static final int Y_COORDINATE_INDEX = 3;
     /**
-     * available chess piece types.
+     * lower bound for number of pieces (two kings).
      */
-    private static final List<String> PIECE_TYPES_LIST =
-            Arrays.asList("Pawn", "King", "Knight", "Rook", "Queen", "Bishop");
-
+    private static final int MINIMAL_PIECES = 2;
 
     /**
-     * entrypoint.
-     * @param args command line arguments
+     * options of evaluation.
      */
-    public static void main(String[] args) throws IOException {
-        int boardSize = Integer.parseInt(scanner.nextLine());
-        // declarations for input chess piece
-        String[] chessPieceArguments;
-        PieceColor pieceColor;
-        PiecePosition piecePosition;
-        ChessPiece chessPiece;
-
-        // list for all chess pieces
-        List<PiecePosition> allPieces = new ArrayList<>();
-
-        try {
-            chessBoard = new Board(boardSize);
-            int numberOfPieces = readNumberOfPieces(2, boardSize * boardSize);  // reading number of pieces
+    private final RunOptions options;
+    /**
+     * pool to reuse boards between evaluations, null if every evaluation creates new board.
+     */
+    private final BoardPool pool;
+    /**
+     * counts of recently evaluated positions, null if positions are not cached.
+     */
+    private final ResultCache cache;
 
-            int totalCnt = 0;  // piece counter
+    /**
+     * creates an engine with specified options and pool of boards.
+     * @param runOptions options of evaluation
+     * @param boardPool pool to reuse boards between evaluations, null to create new board every time
+     */
+    ChessEngine(RunOptions runOptions, BoardPool boardPool) {
+        this.options = runOptions;
+        this.pool = boardPool;
+        this.cache = runOptions.getCacheCapacity() > 0 ? new ResultCache(runOptions.getCacheCapacity()) : null;
+    }
 
-            while (scanner.hasNext()) {
-                totalCnt++;
-                if (totalCnt > numberOfPieces) {
-                    throw new InvalidNumberOfPiecesException();
-                }
+    /**
+     * creates an engine with specified options.
+     * @param runOptions options of evaluation
+     */
+    ChessEngine(RunOptions runOptions) {
+        this(runOptions, null);
+    }
 
-                String chessPieceArgumentsString = scanner.nextLine().replace("\n", "");
-                chessPieceArguments = chessPieceArgumentsString.split(" ");
+    /**
+     * creates an engine with default options.
+     */
+    ChessEngine() {
+        this(RunOptions.parse(new String[0]));
+    }
 
-                if (!PIECE_TYPES_LIST.contains(chessPieceArguments[TYPE_INDEX])) {
-                    throw new InvalidPieceNameException();
-                }
+    /**
+     * evaluates board given in the format of input.txt.
+     * malformed numbers are reported by unchecked exceptions, as they are in Main
+     * @param input stream with board description, it is not closed
+     * @return EvaluationResult, counts for every piece in input order or error message
+     * @throws IOException if input can not be read
+     */
+    public EvaluationResult evaluate(InputStream input) throws IOException {
+        return evaluate(new InputReader(input), null);
+    }
 
-                pieceColor = PieceColor.parse(chessPieceArguments[COLOR_INDEX]);
+    /**
+     * same as evaluate, but malformed numbers and missing lines are reported as invalid input.
+     * used where one malformed board must not stop evaluation of others
+     * @param input stream with board description, it is not closed
+     * @return EvaluationResult, counts for every piece in input order or error message
+     * @throws IOException if input can not be read
+     */
+    public EvaluationResult evaluateLenient(InputStream input) throws IOException {
+        try {
+            return evaluate(input);
+        } catch (NumberFormatException | IndexOutOfBoundsException | NoSuchElementException ex) {
+            return EvaluationResult.error(new InvalidInputException().getMessage());
+        }
+    }
 
-                piecePosition = new PiecePosition(Integer.parseInt(chessPieceArguments[X_COORDINATE_INDEX]),
-                        Integer.parseInt(chessPieceArguments[Y_COORDINATE_INDEX]));
-                if (!piecePosition.isValid(boardSize)) {
-                    throw new InvalidPiecePositionException();
-                }
+    /**
+     * evaluates board given in the format of input.txt, e.g. memory-mapped file.
+     * piece lines are split into chunks parsed in parallel, results and errors are the same as for stream
+     * @param input buffer with board description from its position to its limit, position is not changed
+     * @return EvaluationResult, counts for every piece in input order or error message
+     * @throws IOException never, input is already in memory
+     */
+    public EvaluationResult evaluate(ByteBuffer input) throws IOException {
+        return evaluate(new InputReader(new ByteBufferInputStream(input.duplicate())), input);
+    }
 
-                switch (chessPieceArguments[TYPE_INDEX]) {
-                    case "Pawn":
-                        chessPiece = new Pawn(piecePosition, pieceColor);
-                        break;
-                    case "King":
-                        chessPiece = new King(piecePosition, pieceColor);
-                        break;
-                    case "Knight":
-                        chessPiece = new Knight(piecePosition, pieceColor);
-                        break;
-                    case "Rook":
-                        chessPiece = new Rook(piecePosition, pieceColor);
-                        break;
-                    case "Queen":
-                        chessPiece = new Queen(piecePosition, pieceColor);
-                        break;
-                    case "Bishop":
-                        chessPiece = new Bishop(piecePosition, pieceColor);
-                        break;
-                    default:
-                        throw new InvalidPieceNameException();
-                }
+    /**
+     * evaluates board read by reader.
+     * @param reader InputReader, source of input
+     * @param buffer ByteBuffer, the whole input if piece lines should be parsed in parallel, null otherwise
+     * @return EvaluationResult, counts for every piece in input order or error message
+     * @throws IOException if input can not be read
+     */
+    private EvaluationResult evaluate(InputReader reader, ByteBuffer buffer) throws IOException {
+        int boardSize = reader.readIntLine();
+        // all chess pieces in input order
+        PieceStore allPieces = new PieceStore();
 
-                chessBoard.addPiece(chessPiece);
-                allPieces.add(piecePosition);
+        Board chessBoard = null;
+        try {
+            Board.checkSize(boardSize);
+            int numberOfPieces = readNumberOfPieces(reader, MINIMAL_PIECES, boardSize * boardSize);
+
+            // the whole input is validated before the board is built, so invalid input costs no board
+            PieceValidator validator = new PieceValidator(boardSize);
+            int totalCnt;  // piece counter
+            if (buffer == null) {
+                totalCnt = readPieces(reader, validator, allPieces, numberOfPieces, 0);
+            } else {
+                int piecesStart = buffer.position() + (int) reader.getPosition();
+                totalCnt = readPiecesInParallel(buffer, piecesStart, validator, allPieces, numberOfPieces);
             }
 
-            chessBoard.checkKings();  // to check that there are 1 king of each color
+            long time = EngineMetrics.start();
+            validator.checkKings();  // to check that there are 1 king of each color
 
             if (totalCnt != numberOfPieces) {  // arrived fewer pieces than was declared
                 throw new InvalidNumberOfPiecesException();
             }
+            EngineMetrics.lap(EngineMetrics.Phase.VALIDATION, time);
 
-            for (PiecePosition position: allPieces) {
-                // output for every chess piece
-                chessPiece = chessBoard.getPiece(position);
-                String output = chessBoard.getPiecePossibleMoveCount(chessPiece)
-                        + " " + chessBoard.getPiecePossibleCapturesCount(chessPiece) + "\n";
-                fout.write(output.getBytes());
-            }
-
+            chessBoard = acquireBoard(boardSize);
+            placePieces(chessBoard, allPieces);
+            return evaluate(chessBoard, allPieces);
         } catch (InvalidBoardSizeException ex) {
-            fout.write((ex.getMessage() + "\n").getBytes());
+            return EvaluationResult.error(ex.getMessage());
         } catch (InvalidNumberOfPiecesException ex) {
-            fout.write((ex.getMessage() + "\n").getBytes());
+            return EvaluationResult.error(ex.getMessage());
         } catch (InvalidPieceNameException ex) {
-            fout.write((ex.getMessage() + "\n").getBytes());
+            return EvaluationResult.error(ex.getMessage());
         } catch (InvalidPieceColorException ex) {
-            fout.write((ex.getMessage() + "\n").getBytes());
+            return EvaluationResult.error(ex.getMessage());
         } catch (InvalidPiecePositionException ex) {
-            fout.write((ex.getMessage() + "\n").getBytes());
+            return EvaluationResult.error(ex.getMessage());
         } catch (InvalidGivenKingsException ex) {
-            fout.write((ex.getMessage() + "\n").getBytes());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return EvaluationResult.error(ex.getMessage());
         } finally {
-            fout.close();
+            releaseBoard(chessBoard);
         }
         // I removed InvalidInputException because 6 previous exceptions cover all possible variants
     }
 
     /**
-     * used to read number of pieces.
-     * @param minimal lower bound
-     * @param maximal upper bound
-     * @return number of pieces
-     * @throws InvalidNumberOfPiecesException if result is out of bounds
+     * reads piece lines one by one, every line is checked right after it is read.
+     * @param reader InputReader, source of piece lines
+     * @param validator PieceValidator, checks of pieces against previous ones
+     * @param allPieces PieceStore, destination of pieces in input order
+     * @param numberOfPieces int, declared number of pieces
+     * @param readBefore int, number of pieces read before
+     * @return int, number of pieces read before and by this call
+     * @throws IOException if input can not be read
+     * @throws InvalidNumberOfPiecesException if more pieces than declared are given
+     * @throws InvalidPieceNameException if type of piece is invalid
+     * @throws InvalidPieceColorException if color of piece is invalid
+     * @throws InvalidPiecePositionException if piece lies outside the board or its cell is occupied
+     * @throws InvalidGivenKingsException if extra kings are given
      */
-    private static int readNumberOfPieces(int minimal, int maximal) throws InvalidNumberOfPiecesException {
-        int number = Integer.parseInt(scanner.nextLine());
-        if (number < minimal || number > maximal) {
-            throw new InvalidNumberOfPiecesException();
-        }
-        return number;
-    }
+    private static int readPieces(InputReader reader, PieceValidator validator, PieceStore allPieces,
+                                  int numberOfPieces, int readBefore)
+            throws IOException, InvalidNumberOfPiecesException, InvalidPieceNameException,
+            InvalidPieceColorException, InvalidPiecePositionException, InvalidGivenKingsException {
+        // declarations for input chess piece
+        PieceType pieceType;
+        PieceColor pieceColor;
+        int x;
+        int y;
 
-    private Main() { }  // so that Utility class does not have a public or default constructor, according to CheckStyle
-}
+        int totalCnt = readBefore;  // piece counter
 
+        long time = EngineMetrics.start();
+        while (reader.nextLine()) {
+            totalCnt++;
+            if (totalCnt > numberOfPieces) {
+                throw new InvalidNumberOfPiecesException();
+            }
 
-class PiecePosition {
-    /**
-     * position of chess piece on X-axis.
-     */
-    private final int x;
-    /**
-     * position of chess piece on Y-axis.
-     */
-    private final int y;
+            pieceType = reader.readPieceType(TYPE_INDEX);
+            pieceColor = reader.readPieceColor(COLOR_INDEX);
+
+            x = reader.readInt(X_COORDINATE_INDEX);
+            y = reader.readInt(Y_COORDINATE_INDEX);
+            time = EngineMetrics.lap(EngineMetrics.Phase.PARSE, time);
+
+            validator.accept(pieceType, pieceColor, x, y);
+            allPieces.add(pieceType, pieceColor, x, y);
+            time = EngineMetrics.lap(EngineMetrics.Phase.VALIDATION, time);
+        }
+        return totalCnt;
+    }
 
     /**
-     * creates a piece position class with specified coordinates.
-     * @param onX int, X-coordinate of piece
-     * @param onY int, Y-coordinate of piece
+     * parses piece lines in parallel chunks and checks pieces in input order.
+     * chunk parsing stops at the first malformed line, from there input is read again by readPieces,
+     * so errors and their order are the same as in sequential reading
+     * @param buffer ByteBuffer, the whole input
+     * @param piecesStart int, index of the first piece line in buffer
+     * @param validator PieceValidator, checks of pieces against previous ones
+     * @param allPieces PieceStore, destination of pieces in input order
+     * @param numberOfPieces int, declared number of pieces
+     * @return int, number of read pieces
+     * @throws IOException never, input is already in memory
+     * @throws InvalidNumberOfPiecesException if more pieces than declared are given
+     * @throws InvalidPieceNameException if type of piece is invalid
+     * @throws InvalidPieceColorException if color of piece is invalid
+     * @throws InvalidPiecePositionException if piece lies outside the board or its cell is occupied
+     * @throws InvalidGivenKingsException if extra kings are given
      */
-    PiecePosition(int onX, int onY) {
-        this.x = onX;
-        this.y = onY;
+    private static int readPiecesInParallel(ByteBuffer buffer, int piecesStart, PieceValidator validator,
+                                            PieceStore allPieces, int numberOfPieces)
+            throws IOException, InvalidNumberOfPiecesException, InvalidPieceNameException,
+            InvalidPieceColorException, InvalidPiecePositionException, InvalidGivenKingsException {
+        int boardSize = validator.getSize();
+        List<Callable<ParsedChunk>> tasks = new ArrayList<>();
+        int chunkStart = piecesStart;
+        while (chunkStart < buffer.limit()) {
+            int start = chunkStart;
+            int end = ParsedChunk.nextBoundary(buffer, Math.min(buffer.limit(), start + ParsedChunk.CHUNK_SIZE));
+            tasks.add(() -> ParsedChunk.parse(buffer, start, end, boardSize));
+            chunkStart = end;
+        }
+
+        long time = EngineMetrics.start();
+        List<Future<ParsedChunk>> futures = ForkJoinPool.commonPool().invokeAll(tasks);
+        EngineMetrics.lap(EngineMetrics.Phase.PARSE, time);
+
+        int totalCnt = 0;  // piece counter
+        for (Future<ParsedChunk> future: futures) {
+            ParsedChunk chunk;
+            try {
+                chunk = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+
+            time = EngineMetrics.start();
+            PieceStore pieces = chunk.getPieces();
+            for (int i = 0; i < pieces.size(); i++) {
+                totalCnt++;
+                if (totalCnt > numberOfPieces) {
+                    throw new InvalidNumberOfPiecesException();
+                }
+                validator.accept(pieces.getType(i), pieces.getColor(i), pieces.getX(i), pieces.getY(i));
+                allPieces.add(pieces.getType(i), pieces.getColor(i), pieces.getX(i), pieces.getY(i));
+            }
+            EngineMetrics.lap(EngineMetrics.Phase.VALIDATION, time);
+
+            if (chunk.getFailure() >= 0) {  // the rest of input is read sequentially to report the same error
+                ByteBuffer rest = buffer.duplicate();
+                rest.position(chunk.getFailure());
+                return readPieces(new InputReader(new ByteBufferInputStream(rest)), validator, allPieces,
+                        numberOfPieces, totalCnt);
+            }
+        }
+        return totalCnt;
     }
 
     /**
-     * checks if provided position is possible on current board.
+     * evaluates board with specified pieces, checks are the same as for input.txt.
      * @param boardSize int, size of board
-     * @return boolean validity
+     * @param pieces List<ChessPiece>, pieces in input order
+     * @return EvaluationResult, counts for every piece in input order or error message
      */
-    public boolean isValid(int boardSize) {
-        return this.x >= 1 && this.y >= 1 && this.x <= boardSize && this.y <= boardSize;
+    public EvaluationResult evaluate(int boardSize, List<ChessPiece> pieces) {
+        Board chessBoard = null;
+        try {
+            Board.checkSize(boardSize);
+            if (pieces.size() < MINIMAL_PIECES || pieces.size() > boardSize * boardSize) {
+                throw new InvalidNumberOfPiecesException();
+            }
+            PieceStore allPieces = PieceStore.of(pieces);
+            PieceValidator validator = new PieceValidator(boardSize);
+            for (int i = 0; i < allPieces.size(); i++) {
+                validator.accept(allPieces.getType(i), allPieces.getColor(i), allPieces.getX(i), allPieces.getY(i));
+            }
+            validator.checkKings();
+
+            chessBoard = acquireBoard(boardSize);
+            placePieces(chessBoard, allPieces);
+            return evaluate(chessBoard, allPieces);
+        } catch (InvalidBoardSizeException ex) {
+            return EvaluationResult.error(ex.getMessage());
+        } catch (InvalidNumberOfPiecesException ex) {
+            return EvaluationResult.error(ex.getMessage());
+        } catch (InvalidPiecePositionException ex) {
+            return EvaluationResult.error(ex.getMessage());
+        } catch (InvalidGivenKingsException ex) {
+            return EvaluationResult.error(ex.getMessage());
+        } finally {
+            releaseBoard(chessBoard);
+        }
     }
 
     /**
-     * getter for X-coordinate.
-     * @return int, X-coordinate
+     * places already validated pieces on board.
+     * @param chessBoard Board, empty board
+     * @param allPieces PieceStore, pieces that passed PieceValidator
+     * @throws InvalidPiecePositionException never for validated pieces
+     * @throws InvalidGivenKingsException never for validated pieces
      */
-    public int getX() {
-        return this.x;
+    private static void placePieces(Board chessBoard, PieceStore allPieces)
+            throws InvalidPiecePositionException, InvalidGivenKingsException {
+        long time = EngineMetrics.start();
+        for (int i = 0; i < allPieces.size(); i++) {
+            chessBoard.addPiece(allPieces.getType(i), allPieces.getColor(i), allPieces.getX(i), allPieces.getY(i));
+        }
+        EngineMetrics.lap(EngineMetrics.Phase.ADD_PIECE, time);
     }
+
     /**
-     * getter for Y-coordinate.
-     * @return int, Y-coordinate
+     * used to get empty board, from pool if engine has one.
+     * @param boardSize int, size of board
+     * @return Board
+     * @throws InvalidBoardSizeException if size is too low or too high
      */
-    public int getY() {
-        return this.y;
+    private Board acquireBoard(int boardSize) throws InvalidBoardSizeException {
+        if (this.pool == null) {
+            return new Board(boardSize, this.options.getBackend());
+        }
+        return this.pool.acquire(boardSize, this.options.getBackend());
     }
 
     /**
-     * represents piece position in string.
-     * @return string in format "{X-coordinate} {Y-coordinate}"
+     * used to return board into pool if engine has one.
+     * @param chessBoard Board, null if board was not created
      */
-    @Override
-    public String toString() {
-        return Integer.toString(this.x) + " " + Integer.toString(this.y);
+    private void releaseBoard(Board chessBoard) {
+        if (this.pool != null && chessBoard != null) {
+            this.pool.release(chessBoard);
+        }
     }
-}
 
-
-/**
- * represents color of chess piece.
- * either BLACK or WHITE
- */
-enum PieceColor {
     /**
-     * available colors.
+     * evaluates all pieces placed on board.
+     * @param chessBoard board with all pieces placed
+     * @param allPieces pieces in input order
+     * @return EvaluationResult with counts
      */
-    WHITE, BLACK;
+    private EvaluationResult evaluate(Board chessBoard, PieceStore allPieces) {
+        if (this.cache == null) {
+            return EvaluationResult.counts(count(chessBoard, allPieces));
+        }
+        int[] counts = this.cache.get(chessBoard, allPieces);
+        if (counts == null) {  // repeated position skips evaluation entirely
+            counts = count(chessBoard, allPieces);
+            this.cache.put(chessBoard, allPieces, counts);
+        }
+        return EvaluationResult.counts(counts);
+    }
 
     /**
-     * parses input string and determines color of piece.
-     * @param st string with color provided by user
-     * @return PieceColor
-     * @throws InvalidPieceColorException if provided color is invalid
+     * counts moves and captures of all pieces placed on board in selected mode.
+     * @param chessBoard board with all pieces placed
+     * @param allPieces pieces in input order
+     * @return int[], moves and captures of i-th piece at 2 * i and 2 * i + 1
      */
-    public static PieceColor parse(String st) throws InvalidPieceColorException {
-        if (st.equals("White")) {
-            return WHITE;
-        } else if (st.equals("Black")) {
-            return BLACK;
+    private int[] count(Board chessBoard, PieceStore allPieces) {
+        if (this.options.isLegalMoves()) {
+            long time = EngineMetrics.start();
+            int[] counts = chessBoard.countLegalMoves(allPieces);
+            EngineMetrics.lap(EngineMetrics.Phase.SWEEP, time);
+            return counts;
+        }
+        if (this.options.isAttackMap()) {
+            long time = EngineMetrics.start();
+            int[] counts = chessBoard.sweep(allPieces).getCounts();
+            EngineMetrics.lap(EngineMetrics.Phase.SWEEP, time);
+            return counts;
+        }
+        int[] counts = new int[2 * allPieces.size()];
+        if (this.options.isParallel()) {
+            ForkJoinPool.commonPool().invoke(new CountsTask(chessBoard, allPieces, counts, 0, allPieces.size()));
         } else {
-            throw new InvalidPieceColorException();
+            CountsTask.evaluate(chessBoard, allPieces, counts, 0, allPieces.size());
+        }
+        return counts;
+    }
+
+    /**
+     * used to read number of pieces.
+     * @param reader InputReader, source of input
+     * @param minimal lower bound
+     * @param maximal upper bound
+     * @return number of pieces
+     * @throws InvalidNumberOfPiecesException if result is out of bounds
+     * @throws IOException if input can not be read
+     */
+    private static int readNumberOfPieces(InputReader reader, int minimal, int maximal)
+            throws InvalidNumberOfPiecesException, IOException {
+        int number = reader.readIntLine();
+        if (number < minimal || number > maximal) {
+            throw new InvalidNumberOfPiecesException();
         }
+        return number;
     }
 }
 
 
 /**
- * represents abstract chess piece.
+ * represents piece lines of a chunk of input parsed independently of other chunks.
+ * chunks start and end at line boundaries chosen so that every chunk is read exactly as in the whole input
  */
-abstract class ChessPiece {
+final class ParsedChunk {
     /**
-     * represents position of piece.
+     * approximate number of bytes in chunk.
      */
-    protected PiecePosition position;
+    static final int CHUNK_SIZE = 1 << 20;
+
     /**
-     * represents color of piece.
+     * pieces of lines before the first malformed one.
      */
-    protected PieceColor color;
+    private final PieceStore pieces;
     /**
-     * stores all reachable positions on board.
-     * declared as null because constructor does not have boardSize parameter.
-     * determined after first call of any method
+     * index of start of the first malformed line in buffer, -1 if all lines are valid.
      */
-    protected List<PiecePosition> possiblePositions = null;
+    private final int failure;
 
     /**
-     * creates a chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
+     * creates a parsed chunk.
+     * @param parsedPieces pieces of lines before the first malformed one
+     * @param failureStart index of start of the first malformed line, -1 if all lines are valid
      */
-    ChessPiece(PiecePosition piecePosition, PieceColor pieceColor) {
-        this.position = piecePosition;
-        this.color = pieceColor;
+    private ParsedChunk(PieceStore parsedPieces, int failureStart) {
+        this.pieces = parsedPieces;
+        this.failure = failureStart;
     }
 
     /**
-     * getter for position of chess piece.
-     * @return PiecePosition
+     * getter for pieces of lines before the first malformed one.
+     * @return PieceStore
      */
-    public PiecePosition getPosition() {
-        return this.position;
+    public PieceStore getPieces() {
+        return this.pieces;
     }
+
     /**
-     * getter for color of chess piece.
-     * @return PieceColor
+     * getter for index of start of the first malformed line in buffer.
+     * @return int, -1 if all lines are valid
      */
-    public PieceColor getColor() {
-        return this.color;
+    public int getFailure() {
+        return this.failure;
     }
 
     /**
-     * writes into possiblePositions all reachable positions by this piece.
-     * @param boardSize size of a bord
+     * parses piece lines of chunk, parsing stops at the first line that can not be read or lies outside the board.
+     * @param buffer ByteBuffer, the whole input
+     * @param from int, start of chunk (inclusive)
+     * @param to int, end of chunk (exclusive)
+     * @param boardSize int, size of the board
+     * @return ParsedChunk
      */
-    protected abstract void calculatePossiblePositions(int boardSize);
+    static ParsedChunk parse(ByteBuffer buffer, int from, int to, int boardSize) {
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.limit(to);
+        chunk.position(from);
+        InputReader reader = new InputReader(new ByteBufferInputStream(chunk));
+        PieceStore pieces = new PieceStore();
+        long lineStart = 0;
+        try {
+            while (reader.nextLine()) {
+                PieceType pieceType = reader.readPieceType(ChessEngine.TYPE_INDEX);
+                PieceColor pieceColor = reader.readPieceColor(ChessEngine.COLOR_INDEX);
+                int x = reader.readInt(ChessEngine.X_COORDINATE_INDEX);
+                int y = reader.readInt(ChessEngine.Y_COORDINATE_INDEX);
+                if (!PiecePosition.isValid(x, y, boardSize)) {
+                    throw new InvalidPiecePositionException();
+                }
+                pieces.add(pieceType, pieceColor, x, y);
+                lineStart = reader.getPosition();
+            }
+        } catch (InvalidPieceNameException | InvalidPieceColorException | InvalidPiecePositionException
+                 | RuntimeException | IOException ex) {
+            return new ParsedChunk(pieces, from + (int) lineStart);  // error is reported when chunks are merged
+        }
+        return new ParsedChunk(pieces, -1);
+    }
 
     /**
-     * used to calculate number of possible moves.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible moves for chess piece
+     * used to find end of chunk: the first line boundary at or after specified index that follows non-blank line.
+     * blank lines are read only together with following token, so chunk never ends with them
+     * @param buffer ByteBuffer, the whole input
+     * @param from int, approximate end of chunk
+     * @return int, end of chunk, limit of buffer if there is no suitable boundary
      */
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        if (this.possiblePositions == null) {  // if possible positions are not calculated yet
-            calculatePossiblePositions(boardSize);
+    static int nextBoundary(ByteBuffer buffer, int from) {
+        int limit = buffer.limit();
+        int i = from;
+        while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r') {  // rest of current line
+            i++;
         }
-
-        int result = 0;
-
-        for (PiecePosition piecePosition: this.possiblePositions) {  // for every possible new position
-            ChessPiece piece = positions.get(piecePosition.toString());  // piece on considered position, null if empty
-            if (piece == null || piece.getColor() != this.color) {
-                // if position is empty or contains piece of another color and, therefore, can be freed to move there
-                result++;
+        i = skipSeparator(buffer, i);
+        while (i < limit) {
+            boolean blank = true;
+            while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+                blank &= InputReader.isWhitespace(buffer.get(i));
+                i++;
+            }
+            i = skipSeparator(buffer, i);
+            if (!blank) {
+                return i;
             }
         }
-
-        return result;
+        return limit;
     }
+
     /**
-     * used to calculate number of possible captures.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible captures for chess piece
+     * used to skip line separator: \n, \r\n or \r.
+     * @param buffer ByteBuffer, the whole input
+     * @param index int, index of separator or limit of buffer
+     * @return int, index of the next line
      */
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        if (this.possiblePositions == null) {  // if possible positions are not calculated yet
-            calculatePossiblePositions(boardSize);
+    private static int skipSeparator(ByteBuffer buffer, int index) {
+        int i = index;
+        if (i < buffer.limit() && buffer.get(i) == '\r') {
+            i++;
         }
-
-        int result = 0;
-
-        for (PiecePosition piecePosition: possiblePositions) {  // for every possible new position
-            ChessPiece piece = positions.get(piecePosition.toString());  // piece on considered position, null if empty
-            if (piece != null && piece.getColor() != this.color) {
-                // if position is not empty and contains piece of another color to capture
-                result++;
-            }
+        if (i < buffer.limit() && buffer.get(i) == '\n') {
+            i++;
         }
-
-        return result;
+        return i;
     }
 }
 
 
 /**
- * used in BishopMovement and RookMovement since they are built on the same principle.
- * directions are set by offsetMultipliers
+ * checks pieces in input order with the same rules and in the same order as Board.addPiece,
+ * but keeps only occupancy bitset and kings, so input is validated before any board storage is built
  */
-interface ContinuousMovementsWithOffset {
+final class PieceValidator {
     /**
-     * used to calculate number of possible moves by continuously moving in provided directions.
-     * @param position PiecePosition, position of considered chess piece
-     * @param color PieceColor, color of considered chess piece
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @param offsetMultiplierX int[], array of multipliers for X-coordinate (1st, 2nd, 3rd, 4th direction)
-     * @param offsetMultiplierY int[], same as offsetMultiplierX but for Y-coordinates
-     * @return int, number of possible moves
+     * size of the board.
      */
-    default int getContinuousMovesCount(PiecePosition position, PieceColor color,
-                                        Map<String, ChessPiece> positions, int boardSize,
-                                        int[] offsetMultiplierX, int[] offsetMultiplierY) {
-        int result = 0;  // return value
-        // start position
-        int x = position.getX();
-        int y = position.getY();
-
-        // flags represent availability of movement in corresponding direction
-        boolean[] directionFlags = {true, true, true, true};
-
-        int offset = 0;  // how many moves from start
-
-        PiecePosition move;  // for considered move
-        ChessPiece piece;  // for piece placed on the considered move
-
-        int directionsAvailableCnt = 4;
-        while (directionsAvailableCnt != 0) {  // while move is possible in at least 1 direction
-            offset++;
-            for (int i = 0; i < directionFlags.length; i++) {  // for every direction
-                if (directionFlags[i]) {  // if direction is still available
-                    int newX = x + (offsetMultiplierX[i] * offset);
-                    int newY = y + (offsetMultiplierY[i] * offset);
-
-                    move = new PiecePosition(newX, newY);
-                    piece = positions.get(move.toString());
-
-                    if (move.isValid(boardSize) && piece == null) {
-                        // way is clear
-                        result++;
-                    } else if (move.isValid(boardSize) && piece != null && piece.color != color) {
-                        // piece in the way can be attacked
-                        directionFlags[i] = false;  // can not move further in this direction
-                        directionsAvailableCnt--;
-                        result++;  // but this position is possible for move
-                    } else {
-                        // either move is out of borders or piece of the same color is in the way
-                        directionFlags[i] = false;  // can not move further in this direction & this move is impossible
-                        directionsAvailableCnt--;
-                    }
-                }
-            }
-        }
+    private final int size;
+    /**
+     * occupied cells as bitset keyed by (x - 1) * size + (y - 1).
+     */
+    private final long[] occupied;
+    /**
+     * shows if white king is already given.
+     */
+    private boolean hasWhiteKing = false;
+    /**
+     * shows if black king is already given.
+     */
+    private boolean hasBlackKing = false;
 
-        return result;
+    /**
+     * creates a validator for empty board.
+     * @param boardSize int, size of the board, already checked
+     */
+    PieceValidator(int boardSize) {
+        this.size = boardSize;
+        this.occupied = new long[((boardSize * boardSize) >>> 6) + 1];
     }
 
     /**
-     * used to calculate number of possible captures by continuously moving in provided directions.
-     * @param position PiecePosition, position of considered chess piece
-     * @param color PieceColor, color of considered chess piece
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @param offsetMultiplierX int[], array of multipliers for X-coordinate (1st, 2nd, 3rd, 4th direction)
-     * @param offsetMultiplierY int[], same as offsetMultiplierX but for Y-coordinates
-     * @return int, number of possible captures
+     * getter for size of the board.
+     * @return int
      */
-    default int getContinuousCapturesCount(PiecePosition position, PieceColor color,
-                                           Map<String, ChessPiece> positions, int boardSize,
-                                           int[] offsetMultiplierX, int[] offsetMultiplierY) {
-        // almost same as getContinuousMovesCount
-        int result = 0;  // return value
-        // start position
-        int x = position.getX();
-        int y = position.getY();
-
-        // flags represent availability of movement in corresponding direction
-        boolean[] directionFlags = {true, true, true, true};
-        int offset = 0;  // how many moves from start
-
-        PiecePosition move;  // for considered move
-        ChessPiece piece;  // for piece placed on the considered move
-
-        int directionsAvailableCnt = 4;
-        while (directionsAvailableCnt != 0) {  // while move is possible in at least 1 direction
-            offset++;
-            for (int i = 0; i < directionFlags.length; i++) {  // for every direction
-                if (directionFlags[i]) {  // if direction is still available
-                    int newX = x + (offsetMultiplierX[i] * offset);
-                    int newY = y + (offsetMultiplierY[i] * offset);
-
-                    move = new PiecePosition(newX, newY);
-                    piece = positions.get(move.toString());
-
-                    if (piece != null || !move.isValid(boardSize)) {
-                        directionFlags[i] = false;  // can not move further in this direction
-                        directionsAvailableCnt--;
-
-                        if (piece != null && piece.color != color) {  // piece can be captured
-                            result++;
-                        }
-                    }
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * checks next piece: its cell lies on the board, it is not an extra king and its cell is free.
+     * @param type PieceType, type of piece
+     * @param color PieceColor, color of piece
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @throws InvalidPiecePositionException if piece lies outside the board or its cell is occupied
+     * @throws InvalidGivenKingsException if extra king is given
+     */
+    public void accept(PieceType type, PieceColor color, int x, int y)
+            throws InvalidPiecePositionException, InvalidGivenKingsException {
+        if (!PiecePosition.isValid(x, y, this.size)) {
+            throw new InvalidPiecePositionException();
+        }
+        if (type == PieceType.KING) {
+            if (color == PieceColor.WHITE) {
+                if (this.hasWhiteKing) {
+                    throw new InvalidGivenKingsException();
+                }
+                this.hasWhiteKing = true;
+            } else {
+                if (this.hasBlackKing) {
+                    throw new InvalidGivenKingsException();
                 }
+                this.hasBlackKing = true;
             }
         }
+        int cell = (x - 1) * this.size + (y - 1);
+        if ((this.occupied[cell >>> 6] & 1L << cell) != 0) {
+            throw new InvalidPiecePositionException();
+        }
+        this.occupied[cell >>> 6] |= 1L << cell;
+    }
 
-        return result;
+    /**
+     * used to check if all kings are given.
+     * @throws InvalidGivenKingsException if not all kings are given
+     */
+    public void checkKings() throws InvalidGivenKingsException {
+        if (!(this.hasWhiteKing && this.hasBlackKing)) {
+            throw new InvalidGivenKingsException();
+        }
     }
 }
 
 
 /**
- * represents actions of Bishop and partly of Queen.
+ * represents result of evaluation: either counts for every piece or error message.
+ * result is immutable
  */
-interface BishopMovement extends ContinuousMovementsWithOffset {
+final class EvaluationResult {
     /**
-     * used to calculate number of possible diagonal moves.
-     * @param position PiecePosition, position of considered chess piece
-     * @param color PieceColor, color of considered chess piece
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible diagonal moves
+     * moves and captures of i-th piece are stored at 2 * i and 2 * i + 1, null for error.
+     */
+    private final int[] counts;
+    /**
+     * error message, null if board is valid.
+     */
+    private final String error;
+
+    /**
+     * creates a result.
+     * @param pieceCounts counts of pieces
+     * @param errorMessage error message
      */
-    default int getDiagonalMovesCount(PiecePosition position, PieceColor color,
-                                      Map<String, ChessPiece> positions, int boardSize) {
-        // multipliers for offset in X & Y with respect to direction: up left, up right, down left, down right
-        int[] offsetMultiplierX = {-1, 1, -1, 1};
-        int[] offsetMultiplierY = {1, 1, -1, -1};
+    private EvaluationResult(int[] pieceCounts, String errorMessage) {
+        this.counts = pieceCounts;
+        this.error = errorMessage;
+    }
 
-        return getContinuousMovesCount(position, color, positions, boardSize, offsetMultiplierX, offsetMultiplierY);
+    /**
+     * creates a result for valid board.
+     * @param pieceCounts moves and captures of i-th piece at 2 * i and 2 * i + 1, array is not copied
+     * @return EvaluationResult
+     */
+    static EvaluationResult counts(int[] pieceCounts) {
+        return new EvaluationResult(pieceCounts, null);
     }
 
     /**
-     * used to calculate number of possible diagonal captures.
-     * @param position PiecePosition, position of considered chess piece
-     * @param color PieceColor, color of considered chess piece
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible diagonal captures
+     * creates a result for invalid board.
+     * @param errorMessage error message
+     * @return EvaluationResult
+     */
+    static EvaluationResult error(String errorMessage) {
+        return new EvaluationResult(null, errorMessage);
+    }
+
+    /**
+     * shows if board was valid.
+     * @return boolean, true if counts are available
+     */
+    public boolean isValid() {
+        return this.error == null;
+    }
+
+    /**
+     * getter for error message.
+     * @return String, error message or null if board is valid
+     */
+    public String getError() {
+        return this.error;
+    }
+
+    /**
+     * getter for number of evaluated pieces.
+     * @return int, number of pieces, 0 for invalid board
+     */
+    public int getPiecesCount() {
+        return this.counts == null ? 0 : this.counts.length / 2;
+    }
+
+    /**
+     * getter for number of possible moves of piece.
+     * @param index int, index of piece in input order
+     * @return int, number of possible moves
      */
-    default  int getDiagonalCapturesCount(PiecePosition position, PieceColor color,
-                                          Map<String, ChessPiece> positions, int boardSize) {
-        // multipliers for offset in X & Y with respect to direction: up left, up right, down left, down right
-        int[] offsetMultiplierX = {-1, 1, -1, 1};
-        int[] offsetMultiplierY = {1, 1, -1, -1};
+    public int getMovesCount(int index) {
+        return this.counts[2 * index];
+    }
+
+    /**
+     * getter for number of possible captures of piece.
+     * @param index int, index of piece in input order
+     * @return int, number of possible captures
+     */
+    public int getCapturesCount(int index) {
+        return this.counts[2 * index + 1];
+    }
 
-        return getContinuousCapturesCount(position, color, positions, boardSize, offsetMultiplierX, offsetMultiplierY);
+    /**
+     * writes result in the format of output.txt.
+     * @param writer ResultWriter, destination
+     * @throws IOException if output can not be written
+     */
+    public void writeTo(ResultWriter writer) throws IOException {
+        long time = EngineMetrics.start();
+        if (!isValid()) {
+            writer.writeLine(this.error);
+        } else {
+            for (int i = 0; i < getPiecesCount(); i++) {
+                // output for every chess piece
+                writer.writeCounts(getMovesCount(i), getCapturesCount(i));
+            }
+        }
+        EngineMetrics.lap(EngineMetrics.Phase.OUTPUT, time);
     }
 }
 
 
 /**
- * represents actions of Rook and partly of Queen.
+ * represents options of a run given in command line arguments.
  */
-interface RookMovement extends ContinuousMovementsWithOffset {
+final class RunOptions {
     /**
-     * used to calculate number of possible orthogonal moves.
-     * @param position PiecePosition, position of considered chess piece
-     * @param color PieceColor, color of considered chess piece
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible orthogonal moves
+     * argument that turns on memory-mapped output.
+     */
+    private static final String MAPPED_OUTPUT = "--mapped-output";
+    /**
+     * argument that turns on parallel evaluation of pieces.
+     */
+    private static final String PARALLEL = "--parallel";
+    /**
+     * prefix of argument that selects storage backend of the board, e.g. --backend=sorted-lines.
+     */
+    private static final String BACKEND = "--backend=";
+    /**
+     * argument that turns on batch input: many boards separated by blank lines.
+     */
+    private static final String BATCH = "--batch";
+    /**
+     * argument that turns on memory-mapped input parsed in parallel chunks.
+     */
+    private static final String MAPPED_INPUT = "--mapped-input";
+    /**
+     * prefix of argument that starts local server on specified port instead of reading input.txt, e.g. --daemon=7777.
+     */
+    private static final String DAEMON = "--daemon=";
+    /**
+     * argument that turns on evaluation of the whole board by line sweeps instead of walking rays of every piece.
+     */
+    private static final String ATTACK_MAP = "--attack-map";
+    /**
+     * argument that turns on counting of legal moves only, which do not leave own king attacked.
+     */
+    private static final String LEGAL_MOVES = "--legal-moves";
+    /**
+     * prefix of argument that caches counts of specified number of recent positions, e.g. --cache=1024.
+     */
+    private static final String CACHE = "--cache=";
+
+    /**
+     * shows if output file should be written through memory mapping.
+     */
+    private boolean mappedOutput = false;
+    /**
+     * shows if pieces should be evaluated in parallel.
+     */
+    private boolean parallel = false;
+    /**
+     * storage backend of the board.
+     */
+    private BoardBackend backend = BoardBackend.AUTO;
+    /**
+     * shows if input consists of many boards.
+     */
+    private boolean batch = false;
+    /**
+     * shows if input file should be read through memory mapping.
+     */
+    private boolean mappedInput = false;
+    /**
+     * port of local server, -1 if boards are read from input.txt.
+     */
+    private int daemonPort = -1;
+    /**
+     * shows if board should be evaluated by line sweeps.
+     */
+    private boolean attackMap = false;
+    /**
+     * shows if only legal moves should be counted.
+     */
+    private boolean legalMoves = false;
+    /**
+     * number of positions kept in result cache, 0 if positions are not cached.
+     */
+    private int cacheCapacity = 0;
+
+    /**
+     * parses command line arguments.
+     * @param args command line arguments
+     * @return RunOptions
+     * @throws IllegalArgumentException if argument is unknown
      */
-    default int getOrthogonalMovesCount(PiecePosition position, PieceColor color,
-                                        Map<String, ChessPiece> positions, int boardSize) {
-        // multipliers for offset in X & Y with respect to direction: left, right, up, down
-        int[] offsetMultiplierX = {-1, 1, 0, 0};
-        int[] offsetMultiplierY = {0, 0, 1, -1};
+    static RunOptions parse(String[] args) {
+        RunOptions options = new RunOptions();
+        for (String arg: args) {
+            if (arg.equals(MAPPED_OUTPUT)) {
+                options.mappedOutput = true;
+            } else if (arg.equals(PARALLEL)) {
+                options.parallel = true;
+            } else if (arg.equals(BATCH)) {
+                options.batch = true;
+            } else if (arg.equals(MAPPED_INPUT)) {
+                options.mappedInput = true;
+            } else if (arg.equals(ATTACK_MAP)) {
+                options.attackMap = true;
+            } else if (arg.equals(LEGAL_MOVES)) {
+                options.legalMoves = true;
+            } else if (arg.startsWith(DAEMON)) {
+                options.daemonPort = Integer.parseInt(arg.substring(DAEMON.length()));
+            } else if (arg.startsWith(CACHE)) {
+                options.cacheCapacity = Integer.parseInt(arg.substring(CACHE.length()));
+                if (options.cacheCapacity < 0) {
+                    throw new IllegalArgumentException("Negative cache capacity: " + arg);
+                }
+            } else if (arg.startsWith(BACKEND)) {
+                options.backend = BoardBackend.parse(arg.substring(BACKEND.length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        return options;
+    }
 
-        return getContinuousMovesCount(position, color, positions, boardSize, offsetMultiplierX, offsetMultiplierY);
+    /**
+     * getter for memory-mapped output flag.
+     * @return boolean, true if output should be memory-mapped
+     */
+    public boolean isMappedOutput() {
+        return this.mappedOutput;
     }
 
     /**
-     * used to calculate number of possible orthogonal captures.
-     * @param position PiecePosition, position of considered chess piece
-     * @param color PieceColor, color of considered chess piece
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible orthogonal captures
+     * getter for parallel evaluation flag.
+     * @return boolean, true if pieces should be evaluated in parallel
+     */
+    public boolean isParallel() {
+        return this.parallel;
+    }
+
+    /**
+     * getter for storage backend.
+     * @return BoardBackend
+     */
+    public BoardBackend getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * getter for batch input flag.
+     * @return boolean, true if input consists of many boards
+     */
+    public boolean isBatch() {
+        return this.batch;
+    }
+
+    /**
+     * getter for memory-mapped input flag.
+     * @return boolean, true if input file should be memory-mapped
+     */
+    public boolean isMappedInput() {
+        return this.mappedInput;
+    }
+
+    /**
+     * getter for port of local server.
+     * @return int, port, 0 for any free port, -1 if boards are read from input.txt
+     */
+    public int getDaemonPort() {
+        return this.daemonPort;
+    }
+
+    /**
+     * getter for attack-map mode flag.
+     * @return boolean, true if board should be evaluated by line sweeps
+     */
+    public boolean isAttackMap() {
+        return this.attackMap;
+    }
+
+    /**
+     * getter for legal-move mode flag.
+     * @return boolean, true if only legal moves should be counted
      */
-    default int getOrthogonalCapturesCount(PiecePosition position, PieceColor color,
-                                           Map<String, ChessPiece> positions, int boardSize) {
-        // multipliers for offset in X & Y with respect to direction: left, right, up, down
-        int[] offsetMultiplierX = {-1, 1, 0, 0};
-        int[] offsetMultiplierY = {0, 0, 1, -1};
+    public boolean isLegalMoves() {
+        return this.legalMoves;
+    }
 
-        return getContinuousCapturesCount(position, color, positions, boardSize, offsetMultiplierX, offsetMultiplierY);
+    /**
+     * getter for capacity of result cache.
+     * @return int, number of cached positions, 0 if positions are not cached
+     */
+    public int getCacheCapacity() {
+        return this.cacheCapacity;
     }
+
+    private RunOptions() { }  // created only by parse
 }
 
 
 /**
- * represents Knight chess piece.
+ * evaluates moves and captures of pieces from the range of array.
+ * board is only read during evaluation, so ranges are split between fork/join workers
  */
-class Knight extends ChessPiece {
+class CountsTask extends RecursiveAction {
     /**
-     * creates a Knight chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
+     * version of serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * ranges not longer than this are evaluated sequentially.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 10;
+
+    /**
+     * board with all pieces placed.
+     */
+    private final Board board;
+    /**
+     * evaluated pieces.
+     */
+    private final PieceStore pieces;
+    /**
+     * destination of counts, moves and captures of i-th piece are stored at 2 * i and 2 * i + 1.
+     */
+    private final int[] counts;
+    /**
+     * start of range (inclusive).
+     */
+    private final int from;
+    /**
+     * end of range (exclusive).
+     */
+    private final int to;
+
+    /**
+     * creates a task for specified range of pieces.
+     * @param chessBoard board with all pieces placed
+     * @param evaluatedPieces evaluated pieces
+     * @param destination destination of counts
+     * @param rangeStart start of range (inclusive)
+     * @param rangeEnd end of range (exclusive)
+     */
+    CountsTask(Board chessBoard, PieceStore evaluatedPieces, int[] destination, int rangeStart, int rangeEnd) {
+        this.board = chessBoard;
+        this.pieces = evaluatedPieces;
+        this.counts = destination;
+        this.from = rangeStart;
+        this.to = rangeEnd;
+    }
+
+    @Override
+    protected void compute() {
+        if (this.to - this.from <= SEQUENTIAL_THRESHOLD) {
+            evaluate(this.board, this.pieces, this.counts, this.from, this.to);
+            return;
+        }
+        int middle = (this.from + this.to) >>> 1;
+        invokeAll(new CountsTask(this.board, this.pieces, this.counts, this.from, middle),
+                new CountsTask(this.board, this.pieces, this.counts, middle, this.to));
+    }
+
+    /**
+     * evaluates pieces from the range sequentially.
+     * @param board board with all pieces placed
+     * @param pieces evaluated pieces
+     * @param counts destination of counts
+     * @param from start of range (inclusive)
+     * @param to end of range (exclusive)
+     */
+    static void evaluate(Board board, PieceStore pieces, int[] counts, int from, int to) {
+        for (int i = from; i < to; i++) {
+            long time = EngineMetrics.start();
+            long pieceCounts = board.getPiecePossibleCounts(pieces.getType(i), pieces.getColor(i),
+                    pieces.getX(i), pieces.getY(i));
+            EngineMetrics.lap(pieces.getType(i), time);
+            counts[2 * i] = MoveCounts.moves(pieceCounts);
+            counts[2 * i + 1] = MoveCounts.captures(pieceCounts);
+        }
+    }
+}
+
+
+/**
+ * collects time of evaluation phases and counters of hot loops.
+ * turned on by system property chess.metrics=true, otherwise all methods are no-ops guarded by constant flag,
+ * which JIT removes from hot loops. collected values are exposed as MBean chess:type=EngineMetrics
+ */
+final class EngineMetrics {
+    /**
+     * shows if metrics are collected.
+     */
+    static final boolean ENABLED = Boolean.getBoolean("chess.metrics");
+    /**
+     * name of MBean.
+     */
+    static final String OBJECT_NAME = "chess:type=EngineMetrics";
+
+    /**
+     * represents measured phase of pipeline.
+     */
+    enum Phase {
+        /**
+         * reading and parsing of piece lines.
+         */
+        PARSE,
+        /**
+         * checks of positions, kings and number of pieces.
+         */
+        VALIDATION,
+        /**
+         * placing of pieces on board.
+         */
+        ADD_PIECE,
+        /**
+         * evaluation of the whole board by line sweeps in attack-map and legal-move modes.
+         */
+        SWEEP,
+        /**
+         * writing of results.
+         */
+        OUTPUT
+    }
+
+    /**
+     * represents counted event.
+     */
+    enum Counter {
+        /**
+         * lookups of cells in storage.
+         */
+        LOOKUPS,
+        /**
+         * steps taken by storage to find the nearest blocker along rays of sliding pieces and line sweeps:
+         * cells read by dense and off-heap storages, words scanned by bitsets,
+         * probes of binary search in sorted lines, ray masks used by bitboards.
+         */
+        RAY_STEPS,
+        /**
+         * positions whose counts were taken from result cache.
+         */
+        CACHE_HITS,
+        /**
+         * positions looked up in result cache and evaluated.
+         */
+        CACHE_MISSES
+    }
+
+    /**
+     * nanoseconds spent in every phase.
+     */
+    private static final LongAdder[] PHASES = adders(Phase.values().length);
+    /**
+     * nanoseconds spent in evaluation of pieces of every type.
+     */
+    private static final LongAdder[] EVALUATIONS = adders(PieceType.values().length);
+    /**
+     * number of evaluated pieces of every type.
+     */
+    private static final LongAdder[] EVALUATED = adders(PieceType.values().length);
+    /**
+     * values of counters.
+     */
+    private static final LongAdder[] COUNTERS = adders(Counter.values().length);
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new EngineMetricsMBean(), new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * creates array of zero adders.
+     * @param count int, length of array
+     * @return LongAdder[]
+     */
+    private static LongAdder[] adders(int count) {
+        LongAdder[] result = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    /**
+     * used to start measuring.
+     * @return long, current time, 0 if metrics are off
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * adds time passed since start to phase.
+     * @param phase Phase, measured phase
+     * @param since long, value returned by start or previous lap
+     * @return long, current time to measure next phase from, 0 if metrics are off
+     */
+    static long lap(Phase phase, long since) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        PHASES[phase.ordinal()].add(now - since);
+        return now;
+    }
+
+    /**
+     * adds time passed since start to evaluation of piece type.
+     * @param type PieceType, type of evaluated piece
+     * @param since long, value returned by start
+     */
+    static void lap(PieceType type, long since) {
+        if (ENABLED) {
+            EVALUATIONS[type.ordinal()].add(System.nanoTime() - since);
+            EVALUATED[type.ordinal()].increment();
+        }
+    }
+
+    /**
+     * increases counter.
+     * @param counter Counter, increased counter
+     * @param delta long, increment
+     */
+    static void count(Counter counter, long delta) {
+        if (ENABLED) {
+            COUNTERS[counter.ordinal()].add(delta);
+        }
+    }
+
+    /**
+     * used to get nanoseconds spent in phase.
+     * @param phase Phase
+     * @return long, nanoseconds
+     */
+    static long getNanos(Phase phase) {
+        return PHASES[phase.ordinal()].sum();
+    }
+
+    /**
+     * used to get nanoseconds spent in evaluation of pieces of type.
+     * @param type PieceType
+     * @return long, nanoseconds
+     */
+    static long getNanos(PieceType type) {
+        return EVALUATIONS[type.ordinal()].sum();
+    }
+
+    /**
+     * used to get number of evaluated pieces of type.
+     * @param type PieceType
+     * @return long, number of pieces
+     */
+    static long getEvaluated(PieceType type) {
+        return EVALUATED[type.ordinal()].sum();
+    }
+
+    /**
+     * used to get value of counter.
+     * @param counter Counter
+     * @return long, value
+     */
+    static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    /**
+     * sets all collected values to zero.
+     */
+    static void reset() {
+        for (LongAdder[] adders: new LongAdder[][] {PHASES, EVALUATIONS, EVALUATED, COUNTERS}) {
+            for (LongAdder adder: adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    /**
+     * prints all collected values.
+     * @param out PrintStream, destination
+     */
+    static void printSummary(PrintStream out) {
+        for (Phase phase: Phase.values()) {
+            out.printf(Locale.ROOT, "%-24s %12.3f ms%n", phase.name().toLowerCase(Locale.ROOT),
+                    getNanos(phase) / 1e6);
+        }
+        for (PieceType type: PieceType.values()) {
+            out.printf(Locale.ROOT, "%-24s %12.3f ms %10d pieces%n",
+                    "evaluation." + type.name().toLowerCase(Locale.ROOT), getNanos(type) / 1e6, getEvaluated(type));
+        }
+        for (Counter counter: Counter.values()) {
+            out.printf(Locale.ROOT, "%-24s %15d%n", counter.name().toLowerCase(Locale.ROOT), get(counter));
+        }
+    }
+
+    private EngineMetrics() { }  // utility class
+}
+
+
+/**
+ * exposes EngineMetrics through JMX.
+ * implemented as dynamic MBean, because standard MBean interface has to be public
+ */
+class EngineMetricsMBean implements DynamicMBean {
+    /**
+     * name of operation that resets all values.
+     */
+    private static final String RESET = "reset";
+
+    /**
+     * used to list names of all attributes: nanoseconds of phases and evaluations, evaluated pieces and counters.
+     * @return List<String>
+     */
+    private static List<String> attributeNames() {
+        List<String> names = new ArrayList<>();
+        for (EngineMetrics.Phase phase: EngineMetrics.Phase.values()) {
+            names.add(camelCase(phase.name()) + "Nanos");
+        }
+        for (PieceType type: PieceType.values()) {
+            names.add(camelCase(type.name()) + "EvaluationNanos");
+            names.add(camelCase(type.name()) + "Evaluated");
+        }
+        for (EngineMetrics.Counter counter: EngineMetrics.Counter.values()) {
+            names.add(camelCase(counter.name()));
+        }
+        return names;
+    }
+
+    /**
+     * converts name of constant into attribute name, e.g. ADD_PIECE into AddPiece.
+     * @param constant String, name of constant
+     * @return String
+     */
+    private static String camelCase(String constant) {
+        StringBuilder result = new StringBuilder();
+        for (String word: constant.split("_")) {
+            result.append(word.charAt(0)).append(word.substring(1).toLowerCase(Locale.ROOT));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (EngineMetrics.Phase phase: EngineMetrics.Phase.values()) {
+            if (attribute.equals(camelCase(phase.name()) + "Nanos")) {
+                return EngineMetrics.getNanos(phase);
+            }
+        }
+        for (PieceType type: PieceType.values()) {
+            if (attribute.equals(camelCase(type.name()) + "EvaluationNanos")) {
+                return EngineMetrics.getNanos(type);
+            } else if (attribute.equals(camelCase(type.name()) + "Evaluated")) {
+                return EngineMetrics.getEvaluated(type);
+            }
+        }
+        for (EngineMetrics.Counter counter: EngineMetrics.Counter.values()) {
+            if (attribute.equals(camelCase(counter.name()))) {
+                return EngineMetrics.get(counter);
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Attributes are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList result = new AttributeList();
+        for (String attribute: attributes) {
+            try {
+                result.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                continue;  // unknown attributes are skipped, as the interface prescribes
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();  // nothing can be set
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (!actionName.equals(RESET)) {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+        EngineMetrics.reset();
+        return null;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<String> names = attributeNames();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.size()];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = new MBeanAttributeInfo(names.get(i), "long", names.get(i), true, false, false);
+        }
+        MBeanOperationInfo[] operations = {
+            new MBeanOperationInfo(RESET, "sets all values to zero", new MBeanParameterInfo[0],
+                    "void", MBeanOperationInfo.ACTION),
+        };
+        return new MBeanInfo(getClass().getName(), "chess engine metrics", attributes, null, operations, null);
+    }
+}
+
+
+/**
+ * writes results through reusable byte buffer.
+ * numbers are formatted straight into the buffer, buffer is drained in large chunks
+ */
+abstract class ResultWriter implements AutoCloseable {
+    /**
+     * size of buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * maximal length of single line with counts: two numbers, space and line separator.
+     */
+    private static final int MAXIMAL_COUNTS_LENGTH = 2 * 10 + 2;
+
+    /**
+     * buffered bytes.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * number of buffered bytes.
+     */
+    private int length = 0;
+
+    /**
+     * used to write line "{moves} {captures}".
+     * @param moves int, non-negative number of moves
+     * @param captures int, non-negative number of captures
+     * @throws IOException if output can not be written
+     */
+    public void writeCounts(int moves, int captures) throws IOException {
+        if (this.length + MAXIMAL_COUNTS_LENGTH > BUFFER_SIZE) {
+            flushBuffer();
+        }
+        writeNumber(moves);
+        this.buffer[this.length++] = ' ';
+        writeNumber(captures);
+        this.buffer[this.length++] = '\n';
+    }
+
+    /**
+     * used to write single line of text.
+     * @param message String, line without line separator
+     * @throws IOException if output can not be written
+     */
+    public void writeLine(String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes();
+        if (this.length + bytes.length > BUFFER_SIZE) {
+            flushBuffer();
+        }
+        if (bytes.length > BUFFER_SIZE) {
+            drain(bytes, bytes.length);
+            return;
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+        this.length += bytes.length;
+    }
+
+    /**
+     * writes digits of non-negative number into buffer.
+     * @param number int, non-negative number
+     */
+    private void writeNumber(int number) {
+        int digits = 1;
+        for (int rest = number / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int position = this.length + digits;
+        this.length = position;
+        int rest = number;
+        do {
+            this.buffer[--position] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+    }
+
+    /**
+     * passes buffered bytes to output and empties buffer.
+     * @throws IOException if output can not be written
+     */
+    private void flushBuffer() throws IOException {
+        if (this.length > 0) {
+            drain(this.buffer, this.length);
+            this.length = 0;
+        }
+    }
+
+    /**
+     * writes chunk of bytes into output.
+     * @param bytes byte[], chunk
+     * @param count int, number of bytes to write from the start of chunk
+     * @throws IOException if output can not be written
+     */
+    protected abstract void drain(byte[] bytes, int count) throws IOException;
+
+    /**
+     * finishes writing and releases output.
+     * @throws IOException if output can not be written
+     */
+    protected abstract void closeOutput() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        long time = EngineMetrics.start();
+        try {
+            flushBuffer();
+        } finally {
+            closeOutput();
+            EngineMetrics.lap(EngineMetrics.Phase.OUTPUT, time);
+        }
+    }
+}
+
+
+/**
+ * writes results into output stream.
+ */
+class StreamResultWriter extends ResultWriter {
+    /**
+     * destination of results.
+     */
+    private final OutputStream out;
+
+    /**
+     * creates a writer over specified stream.
+     * @param outputStream destination of results
+     */
+    StreamResultWriter(OutputStream outputStream) {
+        this.out = outputStream;
+    }
+
+    @Override
+    protected void drain(byte[] bytes, int count) throws IOException {
+        this.out.write(bytes, 0, count);
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        this.out.close();
+    }
+}
+
+
+/**
+ * writes results into file through memory mapping.
+ * file is mapped by windows that are remapped when filled, file is truncated to written length on close
+ */
+class MappedResultWriter extends ResultWriter {
+    /**
+     * size of mapped window.
+     */
+    private static final int WINDOW_SIZE = 1 << 22;
+
+    /**
+     * destination file.
+     */
+    private final RandomAccessFile file;
+    /**
+     * channel of destination file.
+     */
+    private final FileChannel channel;
+    /**
+     * currently mapped window, null before first write.
+     */
+    private MappedByteBuffer window = null;
+    /**
+     * position of current window in file.
+     */
+    private long windowStart = 0;
+
+    /**
+     * creates a writer over specified file, previous content of file is discarded.
+     * @param outputFile destination file opened for reading and writing
+     * @throws IOException if file can not be truncated
+     */
+    MappedResultWriter(RandomAccessFile outputFile) throws IOException {
+        this.file = outputFile;
+        this.channel = outputFile.getChannel();
+        this.file.setLength(0);
+    }
+
+    @Override
+    protected void drain(byte[] bytes, int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            if (this.window == null || !this.window.hasRemaining()) {
+                if (this.window != null) {
+                    this.windowStart += this.window.position();
+                }
+                this.window = this.channel.map(FileChannel.MapMode.READ_WRITE, this.windowStart, WINDOW_SIZE);
+            }
+            int chunk = Math.min(count - offset, this.window.remaining());
+            this.window.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        try {
+            long written = this.windowStart;
+            if (this.window != null) {
+                written += this.window.position();
+                this.window.force();
+            }
+            this.channel.truncate(written);  // mapping extends file up to the end of window
+        } finally {
+            this.file.close();
+        }
+    }
+}
+
+
+class PiecePosition {
+    /**
+     * position of chess piece on X-axis.
+     */
+    private final int x;
+    /**
+     * position of chess piece on Y-axis.
+     */
+    private final int y;
+
+    /**
+     * creates a piece position class with specified coordinates.
+     * @param onX int, X-coordinate of piece
+     * @param onY int, Y-coordinate of piece
+     */
+    PiecePosition(int onX, int onY) {
+        this.x = onX;
+        this.y = onY;
+    }
+
+    /**
+     * checks if provided position is possible on current board.
+     * @param boardSize int, size of board
+     * @return boolean validity
+     */
+    public boolean isValid(int boardSize) {
+        return isValid(this.x, this.y, boardSize);
+    }
+
+    /**
+     * checks if provided coordinates are possible on current board.
+     * @param x int, X-coordinate
+     * @param y int, Y-coordinate
+     * @param boardSize int, size of board
+     * @return boolean validity
+     */
+    public static boolean isValid(int x, int y, int boardSize) {
+        return x >= 1 && y >= 1 && x <= boardSize && y <= boardSize;
+    }
+
+    /**
+     * getter for X-coordinate.
+     * @return int, X-coordinate
+     */
+    public int getX() {
+        return this.x;
+    }
+    /**
+     * getter for Y-coordinate.
+     * @return int, Y-coordinate
+     */
+    public int getY() {
+        return this.y;
+    }
+
+    /**
+     * represents piece position in string.
+     * @return string in format "{X-coordinate} {Y-coordinate}"
+     */
+    @Override
+    public String toString() {
+        return Integer.toString(this.x) + " " + Integer.toString(this.y);
+    }
+}
+
+
+/**
+ * represents color of chess piece.
+ * either BLACK or WHITE
+ */
+enum PieceColor {
+    /**
+     * available colors.
+     */
+    WHITE, BLACK;
+
+    /**
+     * parses input string and determines color of piece.
+     * @param st string with color provided by user
+     * @return PieceColor
+     * @throws InvalidPieceColorException if provided color is invalid
+     */
+    public static PieceColor parse(String st) throws InvalidPieceColorException {
+        if (st.equals("White")) {
+            return WHITE;
+        } else if (st.equals("Black")) {
+            return BLACK;
+        } else {
+            throw new InvalidPieceColorException();
+        }
+    }
+
+    /**
+     * parses color of piece directly from input bytes.
+     * @param bytes byte[], buffer with input
+     * @param from int, index of first byte of color (inclusive)
+     * @param to int, index of last byte of color (exclusive)
+     * @return PieceColor
+     * @throws InvalidPieceColorException if provided color is invalid
+     */
+    public static PieceColor parse(byte[] bytes, int from, int to) throws InvalidPieceColorException {
+        if (to - from == WHITE_NAME.length && PieceType.matches(bytes, from, WHITE_NAME)) {
+            return WHITE;
+        } else if (to - from == BLACK_NAME.length && PieceType.matches(bytes, from, BLACK_NAME)) {
+            return BLACK;
+        } else {
+            throw new InvalidPieceColorException();
+        }
+    }
+
+    /**
+     * used to get color of the other side.
+     * @return PieceColor, BLACK for WHITE and WHITE for BLACK
+     */
+    public PieceColor opposite() {
+        return this == WHITE ? BLACK : WHITE;
+    }
+
+    /**
+     * input name of white color.
+     */
+    private static final byte[] WHITE_NAME = {'W', 'h', 'i', 't', 'e'};
+    /**
+     * input name of black color.
+     */
+    private static final byte[] BLACK_NAME = {'B', 'l', 'a', 'c', 'k'};
+}
+
+
+/**
+ * represents type of chess piece.
+ */
+enum PieceType {
+    /**
+     * available types.
+     */
+    PAWN("Pawn"), KING("King"), KNIGHT("Knight"), ROOK("Rook"), QUEEN("Queen"), BISHOP("Bishop");
+
+    /**
+     * name of type in input.
+     */
+    private final byte[] name;
+
+    /**
+     * creates a type with specified input name.
+     * @param typeName name of type in input
+     */
+    PieceType(String typeName) {
+        this.name = typeName.getBytes();
+    }
+
+    /**
+     * creates a chess piece of this type.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     * @return ChessPiece
+     */
+    public ChessPiece create(PiecePosition piecePosition, PieceColor pieceColor) {
+        switch (this) {
+            case PAWN:
+                return new Pawn(piecePosition, pieceColor);
+            case KING:
+                return new King(piecePosition, pieceColor);
+            case KNIGHT:
+                return new Knight(piecePosition, pieceColor);
+            case ROOK:
+                return new Rook(piecePosition, pieceColor);
+            case QUEEN:
+                return new Queen(piecePosition, pieceColor);
+            default:
+                return new Bishop(piecePosition, pieceColor);
+        }
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for piece of this type given by its coordinates.
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param color PieceColor, color of piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    public long getCounts(int x, int y, PieceColor color, BoardStorage positions, int boardSize) {
+        switch (this) {
+            case PAWN:
+                return Pawn.getPawnCounts(x, y, color, positions, boardSize);
+            case KING:
+                return LeaperMovement.getLeaperCounts(x, y, color, positions,
+                        positions.getGeometry().getKingTargets(x, y), MoveOffsets.KING);
+            case KNIGHT:
+                return LeaperMovement.getLeaperCounts(x, y, color, positions,
+                        positions.getGeometry().getKnightTargets(x, y), MoveOffsets.KNIGHT);
+            case ROOK:
+                return ContinuousMovementsWithOffset.getContinuousCounts(x, y, color, positions, boardSize,
+                        ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION);
+            case QUEEN:
+                return ContinuousMovementsWithOffset.getContinuousCounts(x, y, color, positions, boardSize,
+                        ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.DIRECTIONS_COUNT);
+            default:
+                return ContinuousMovementsWithOffset.getContinuousCounts(x, y, color, positions, boardSize,
+                        ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.DIRECTIONS_COUNT);
+        }
+    }
+
+    /**
+     * used to generate possible moves of piece of this type given by its coordinates.
+     * moves are the ones counted by getCounts, captures are flagged
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param color PieceColor, color of piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @param moves MoveList, destination, moves are appended
+     */
+    public void generateMoves(int x, int y, PieceColor color, BoardStorage positions, int boardSize, MoveList moves) {
+        switch (this) {
+            case PAWN:
+                Pawn.generatePawnMoves(x, y, color, positions, boardSize, moves);
+                break;
+            case KING:
+                LeaperMovement.generateLeaperMoves(x, y, color, positions,
+                        positions.getGeometry().getKingTargets(x, y), MoveOffsets.KING, moves);
+                break;
+            case KNIGHT:
+                LeaperMovement.generateLeaperMoves(x, y, color, positions,
+                        positions.getGeometry().getKnightTargets(x, y), MoveOffsets.KNIGHT, moves);
+                break;
+            case ROOK:
+                ContinuousMovementsWithOffset.generateContinuousMoves(x, y, color, positions,
+                        ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION, moves);
+                break;
+            case QUEEN:
+                ContinuousMovementsWithOffset.generateContinuousMoves(x, y, color, positions,
+                        ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.DIRECTIONS_COUNT, moves);
+                break;
+            default:
+                ContinuousMovementsWithOffset.generateContinuousMoves(x, y, color, positions,
+                        ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.DIRECTIONS_COUNT, moves);
+        }
+    }
+
+    /**
+     * parses type of piece directly from input bytes.
+     * candidate is chosen by single switch on first byte, then the rest of name is compared
+     * @param bytes byte[], buffer with input
+     * @param from int, index of first byte of name (inclusive)
+     * @param to int, index of last byte of name (exclusive)
+     * @return PieceType
+     * @throws InvalidPieceNameException if provided name is invalid
+     */
+    public static PieceType parse(byte[] bytes, int from, int to) throws InvalidPieceNameException {
+        PieceType candidate;
+        if (from == to) {
+            throw new InvalidPieceNameException();
+        }
+        switch (bytes[from]) {
+            case 'P':
+                candidate = PAWN;
+                break;
+            case 'K':  // King & Knight differ in length
+                candidate = (to - from == KING.name.length) ? KING : KNIGHT;
+                break;
+            case 'R':
+                candidate = ROOK;
+                break;
+            case 'Q':
+                candidate = QUEEN;
+                break;
+            case 'B':
+                candidate = BISHOP;
+                break;
+            default:
+                throw new InvalidPieceNameException();
+        }
+        if (to - from != candidate.name.length || !matches(bytes, from, candidate.name)) {
+            throw new InvalidPieceNameException();
+        }
+        return candidate;
+    }
+
+    /**
+     * checks if bytes starting from specified index are equal to expected ones.
+     * @param bytes byte[], buffer with input
+     * @param from int, index of first compared byte
+     * @param expected byte[], expected bytes
+     * @return boolean, true if all expected bytes are present
+     */
+    static boolean matches(byte[] bytes, int from, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+
+/**
+ * reads bytes of buffer from its position to its limit, used to read memory-mapped input.
+ */
+class ByteBufferInputStream extends InputStream {
+    /**
+     * source of bytes, its position is moved by reading.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * creates a stream over buffer.
+     * @param source ByteBuffer, it should not be used by caller afterwards
+     */
+    ByteBufferInputStream(ByteBuffer source) {
+        this.buffer = source;
+    }
+
+    @Override
+    public int read() {
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, this.buffer.remaining());
+        this.buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+}
+
+
+/**
+ * reads input line by line through own byte buffer.
+ * lines are split into tokens by single spaces (as String.split(" ") does)
+ * and tokens are parsed without building intermediate strings
+ */
+class InputReader {
+    /**
+     * size of buffer for reading from stream.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * initial capacity of line buffer.
+     */
+    private static final int LINE_CAPACITY = 64;
+
+    /**
+     * source of input bytes.
+     */
+    private final InputStream in;
+    /**
+     * bytes read from stream.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * number of valid bytes in buffer.
+     */
+    private int bufferLength = 0;
+    /**
+     * index of next unread byte in buffer.
+     */
+    private int bufferPointer = 0;
+    /**
+     * number of bytes read from stream before current content of buffer.
+     */
+    private long bufferOffset = 0;
+
+    /**
+     * bytes of current line without line separator.
+     */
+    private byte[] line = new byte[LINE_CAPACITY];
+    /**
+     * number of bytes in current line.
+     */
+    private int lineLength = 0;
+    /**
+     * starts of tokens of current line (inclusive).
+     */
+    private int[] tokenStarts = new int[LINE_CAPACITY];
+    /**
+     * ends of tokens of current line (exclusive).
+     */
+    private int[] tokenEnds = new int[LINE_CAPACITY];
+    /**
+     * number of tokens in current line.
+     */
+    private int tokensCount = 0;
+
+    /**
+     * creates a reader over specified stream.
+     * @param inputStream source of input bytes
+     */
+    InputReader(InputStream inputStream) {
+        this.in = inputStream;
+    }
+
+    /**
+     * used to get next byte without consuming it.
+     * @return int, next byte or -1 if input is over
+     * @throws IOException if stream can not be read
+     */
+    private int peek() throws IOException {
+        if (this.bufferPointer == this.bufferLength) {
+            this.bufferOffset += this.bufferLength;
+            this.bufferLength = this.in.read(this.buffer, 0, BUFFER_SIZE);
+            this.bufferPointer = 0;
+            if (this.bufferLength <= 0) {
+                this.bufferLength = 0;
+                return -1;
+            }
+        }
+        return this.buffer[this.bufferPointer];
+    }
+
+    /**
+     * getter for number of consumed bytes, i.e. index of the next unread byte in stream.
+     * @return long
+     */
+    public long getPosition() {
+        return this.bufferOffset + this.bufferPointer;
+    }
+
+    /**
+     * reads next line into line buffer, line separators are \n, \r\n and \r.
+     * @return boolean, false if input is over
+     * @throws IOException if stream can not be read
+     */
+    private boolean readLine() throws IOException {
+        if (peek() < 0) {
+            return false;
+        }
+        this.lineLength = 0;
+        int current = peek();
+        while (current >= 0 && current != '\n' && current != '\r') {
+            if (this.lineLength == this.line.length) {
+                this.line = Arrays.copyOf(this.line, this.line.length * 2);
+            }
+            this.line[this.lineLength++] = (byte) current;
+            this.bufferPointer++;
+            current = peek();
+        }
+        if (current == '\r') {
+            this.bufferPointer++;
+            current = peek();
+        }
+        if (current == '\n') {
+            this.bufferPointer++;
+        }
+        return true;
+    }
+
+    /**
+     * checks if byte is a whitespace in terms of Character.isWhitespace.
+     * @param b int, considered byte
+     * @return boolean, true for whitespace
+     */
+    static boolean isWhitespace(int b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= '\u001C' && b <= '\u001F');
+    }
+
+    /**
+     * reads next piece line and splits it into tokens.
+     * as with Scanner.hasNext() + nextLine(), line is returned only if any token remains in input,
+     * so trailing whitespace-only lines are ignored
+     * @return boolean, false if no more tokens are left in input
+     * @throws IOException if stream can not be read
+     */
+    public boolean nextLine() throws IOException {
+        if (!readLine()) {
+            return false;
+        }
+        boolean blank = true;
+        for (int i = 0; i < this.lineLength && blank; i++) {
+            blank = isWhitespace(this.line[i]);
+        }
+        if (blank) {
+            // line is returned only if it is followed by token, skipped bytes are whitespaces only
+            int current = peek();
+            while (current >= 0 && isWhitespace(current)) {
+                this.bufferPointer++;
+                current = peek();
+            }
+            if (current < 0) {
+                return false;
+            }
+        }
+        splitLine();
+        return true;
+    }
+
+    /**
+     * splits current line into tokens by single spaces, trailing empty tokens are dropped.
+     */
+    private void splitLine() {
+        this.tokensCount = 0;
+        if (this.lineLength == 0) {  // empty line consists of single empty token
+            addToken(0, 0);
+            return;
+        }
+        int end = this.lineLength;
+        while (end > 0 && this.line[end - 1] == ' ') {  // trailing empty tokens
+            end--;
+        }
+        if (end == 0) {
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (this.line[i] == ' ') {
+                addToken(start, i);
+                start = i + 1;
+            }
+        }
+        addToken(start, end);
+    }
+
+    /**
+     * appends token bounds to current line tokens.
+     * @param start int, start of token (inclusive)
+     * @param end int, end of token (exclusive)
+     */
+    private void addToken(int start, int end) {
+        if (this.tokensCount == this.tokenStarts.length) {
+            this.tokenStarts = Arrays.copyOf(this.tokenStarts, this.tokensCount * 2);
+            this.tokenEnds = Arrays.copyOf(this.tokenEnds, this.tokensCount * 2);
+        }
+        this.tokenStarts[this.tokensCount] = start;
+        this.tokenEnds[this.tokensCount] = end;
+        this.tokensCount++;
+    }
+
+    /**
+     * checks that token with specified index exists in current line.
+     * @param index int, index of token
+     */
+    private void checkToken(int index) {
+        if (index >= this.tokensCount) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /**
+     * reads the whole next line as integer.
+     * @return int, parsed number
+     * @throws IOException if stream can not be read
+     */
+    public int readIntLine() throws IOException {
+        if (!readLine()) {
+            throw new NoSuchElementException("No line found");
+        }
+        return parseInt(this.line, 0, this.lineLength);
+    }
+
+    /**
+     * parses type of piece from token of current line.
+     * @param index int, index of token
+     * @return PieceType
+     * @throws InvalidPieceNameException if name of type is invalid
+     */
+    public PieceType readPieceType(int index) throws InvalidPieceNameException {
+        checkToken(index);
+        return PieceType.parse(this.line, this.tokenStarts[index], this.tokenEnds[index]);
+    }
+
+    /**
+     * parses color of piece from token of current line.
+     * @param index int, index of token
+     * @return PieceColor
+     * @throws InvalidPieceColorException if color is invalid
+     */
+    public PieceColor readPieceColor(int index) throws InvalidPieceColorException {
+        checkToken(index);
+        return PieceColor.parse(this.line, this.tokenStarts[index], this.tokenEnds[index]);
+    }
+
+    /**
+     * parses integer from token of current line.
+     * @param index int, index of token
+     * @return int, parsed number
+     */
+    public int readInt(int index) {
+        checkToken(index);
+        return parseInt(this.line, this.tokenStarts[index], this.tokenEnds[index]);
+    }
+
+    /**
+     * parses integer with the same rules as Integer.parseInt does.
+     * @param bytes byte[], buffer with input
+     * @param from int, index of first byte of number (inclusive)
+     * @param to int, index of last byte of number (exclusive)
+     * @return int, parsed number
+     * @throws NumberFormatException if bytes do not represent integer
+     */
+    static int parseInt(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        int limit = -Integer.MAX_VALUE;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            if (bytes[i] == '-') {
+                negative = true;
+                limit = Integer.MIN_VALUE;
+            }
+            i++;
+        }
+        if (i == to) {
+            throw numberFormatException(bytes, from, to);
+        }
+        int result = 0;  // accumulated negatively to cover Integer.MIN_VALUE
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < (limit / 10)) {
+                throw numberFormatException(bytes, from, to);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(bytes, from, to);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * used to build exception for invalid number, string is built only in this case.
+     * @param bytes byte[], buffer with input
+     * @param from int, index of first byte of number (inclusive)
+     * @param to int, index of last byte of number (exclusive)
+     * @return NumberFormatException
+     */
+    private static NumberFormatException numberFormatException(byte[] bytes, int from, int to) {
+        return new NumberFormatException("For input string: \"" + new String(bytes, from, to - from) + "\"");
+    }
+}
+
+
+/**
+ * represents abstract chess piece.
+ */
+abstract class ChessPiece {
+    /**
+     * represents position of piece.
+     */
+    protected PiecePosition position;
+    /**
+     * represents color of piece.
+     */
+    protected PieceColor color;
+    /**
+     * creates a chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    ChessPiece(PiecePosition piecePosition, PieceColor pieceColor) {
+        this.position = piecePosition;
+        this.color = pieceColor;
+    }
+
+    /**
+     * getter for position of chess piece.
+     * @return PiecePosition
+     */
+    public PiecePosition getPosition() {
+        return this.position;
+    }
+    /**
+     * getter for color of chess piece.
+     * @return PieceColor
+     */
+    public PieceColor getColor() {
+        return this.color;
+    }
+
+    /**
+     * getter for type of chess piece.
+     * @return PieceType
+     */
+    public abstract PieceType getType();
+
+    /**
+     * used to calculate number of possible moves.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible moves for chess piece
+     */
+    public abstract int getMovesCount(BoardStorage positions, int boardSize);
+
+    /**
+     * used to calculate number of possible captures.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures for chess piece
+     */
+    public abstract int getCapturesCount(BoardStorage positions, int boardSize);
+
+    /**
+     * used to calculate number of possible moves and captures at once.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.pack(getMovesCount(positions, boardSize), getCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to generate possible moves, their number is the one returned by getMovesCount.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @param moves MoveList, destination, moves are appended
+     */
+    public void generateMoves(BoardStorage positions, int boardSize, MoveList moves) {
+        getType().generateMoves(this.position.getX(), this.position.getY(), this.color, positions, boardSize, moves);
+    }
+}
+
+
+/**
+ * immutable table of offsets of moves: directions of sliding pieces or jumps of leapers.
+ * arrays are never exposed, so every evaluator can rely on their contents
+ */
+final class MoveOffsets {
+    /**
+     * directions of sliding pieces: left, right, up, down, up left, up right, down left, down right.
+     * orthogonal ones start at ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+     * diagonal ones at ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION
+     */
+    static final MoveOffsets DIRECTIONS = new MoveOffsets(
+            new int[] {-1, 1, 0, 0, -1, 1, -1, 1}, new int[] {0, 0, 1, -1, 1, 1, -1, -1});
+    /**
+     * all moves of Knight.
+     */
+    static final MoveOffsets KNIGHT = new MoveOffsets(
+            new int[] {2, 2, -2, -2, 1, 1, -1, -1}, new int[] {1, -1, 1, -1, 2, -2, 2, -2});
+    /**
+     * all moves of King.
+     */
+    static final MoveOffsets KING = new MoveOffsets(
+            new int[] {-1, -1, -1, 0, 0, 1, 1, 1}, new int[] {-1, 0, 1, -1, 1, -1, 0, 1});
+    /**
+     * index of opposite direction for every direction of DIRECTIONS.
+     */
+    private static final int[] OPPOSITE_DIRECTION = {1, 0, 3, 2, 7, 6, 5, 4};
+
+    /**
+     * offsets in X for every move.
+     */
+    private final int[] offsetsX;
+    /**
+     * same as offsetsX but for Y-coordinates.
+     */
+    private final int[] offsetsY;
+
+    /**
+     * creates a table, arrays are owned by the table afterwards.
+     * @param x int[], offsets in X for every move
+     * @param y int[], offsets in Y for every move
+     */
+    private MoveOffsets(int[] x, int[] y) {
+        this.offsetsX = x;
+        this.offsetsY = y;
+    }
+
+    /**
+     * getter for offset in X.
+     * @param index int, index of move
+     * @return int, offset
+     */
+    public int getX(int index) {
+        return this.offsetsX[index];
+    }
+
+    /**
+     * getter for offset in Y.
+     * @param index int, index of move
+     * @return int, offset
+     */
+    public int getY(int index) {
+        return this.offsetsY[index];
+    }
+
+    /**
+     * used to get number of moves in the table.
+     * @return int, number of moves
+     */
+    public int size() {
+        return this.offsetsX.length;
+    }
+
+    /**
+     * used to get direction opposite to direction of DIRECTIONS.
+     * @param direction int, index of direction
+     * @return int, index of opposite direction
+     */
+    static int opposite(int direction) {
+        return OPPOSITE_DIRECTION[direction];
+    }
+}
+
+
+/**
+ * used in BishopMovement and RookMovement since they are built on the same principle.
+ * directions are taken from MoveOffsets.DIRECTIONS, rays are walked on primitive coordinates
+ */
+interface ContinuousMovementsWithOffset {
+    /**
+     * index of the first orthogonal direction in MoveOffsets.DIRECTIONS.
+     */
+    int FIRST_ORTHOGONAL_DIRECTION = 0;
+    /**
+     * index of the first diagonal direction in MoveOffsets.DIRECTIONS.
+     */
+    int FIRST_DIAGONAL_DIRECTION = 4;
+    /**
+     * number of directions in MoveOffsets.DIRECTIONS.
+     */
+    int DIRECTIONS_COUNT = 8;
+    /**
+     * index of direction in which Y-coordinate increases, i.e. along column.
+     */
+    int UP = 2;
+
+    /**
+     * used to calculate number of possible moves and captures by continuously moving in provided directions.
+     * every ray is looked up only once: storage finds its nearest blocker and both counts are taken from it
+     * @param position PiecePosition, position of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @param firstDirection int, index of first considered direction in MoveOffsets.DIRECTIONS (inclusive)
+     * @param lastDirection int, index of last considered direction in MoveOffsets.DIRECTIONS (exclusive)
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    default long getContinuousCounts(PiecePosition position, PieceColor color,
+                                     BoardStorage positions, int boardSize,
+                                     int firstDirection, int lastDirection) {
+        return getContinuousCounts(position.getX(), position.getY(), color, positions, boardSize,
+                firstDirection, lastDirection);
+    }
+
+    /**
+     * same as getContinuousCounts for piece given by its coordinates, used for pieces without objects.
+     * @param x int, X-coordinate of considered chess piece
+     * @param y int, Y-coordinate of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @param firstDirection int, index of first considered direction in MoveOffsets.DIRECTIONS (inclusive)
+     * @param lastDirection int, index of last considered direction in MoveOffsets.DIRECTIONS (exclusive)
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    static long getContinuousCounts(int x, int y, PieceColor color,
+                                    BoardStorage positions, int boardSize,
+                                    int firstDirection, int lastDirection) {
+        int moves = 0;
+        int captures = 0;
+
+        for (int i = firstDirection; i < lastDirection; i++) {  // for every direction
+            // all cells before the nearest blocker (or the edge) are free to move
+            int distance = positions.getBlockerDistance(x, y, i);
+            moves += distance - 1;
+
+            PieceColor blocker = positions.getColor(x + MoveOffsets.DIRECTIONS.getX(i) * distance,
+                    y + MoveOffsets.DIRECTIONS.getY(i) * distance);
+            if (blocker != null && blocker != color) {  // piece in the way can be attacked
+                moves++;
+                captures++;
+            }
+        }
+
+        return MoveCounts.pack(moves, captures);
+    }
+
+    /**
+     * used to generate moves along provided directions, ray walks are the same as in getContinuousCounts.
+     * @param x int, X-coordinate of considered chess piece
+     * @param y int, Y-coordinate of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param firstDirection int, index of first considered direction in MoveOffsets.DIRECTIONS (inclusive)
+     * @param lastDirection int, index of last considered direction in MoveOffsets.DIRECTIONS (exclusive)
+     * @param moves MoveList, destination, moves are appended
+     */
+    static void generateContinuousMoves(int x, int y, PieceColor color, BoardStorage positions,
+                                        int firstDirection, int lastDirection, MoveList moves) {
+        for (int i = firstDirection; i < lastDirection; i++) {
+            int offsetX = MoveOffsets.DIRECTIONS.getX(i);
+            int offsetY = MoveOffsets.DIRECTIONS.getY(i);
+            int distance = positions.getBlockerDistance(x, y, i);
+            for (int step = 1; step < distance; step++) {
+                moves.add(x, y, x + offsetX * step, y + offsetY * step, false);
+            }
+            int blockerX = x + offsetX * distance;
+            int blockerY = y + offsetY * distance;
+            PieceColor blocker = positions.getColor(blockerX, blockerY);
+            if (blocker != null && blocker != color) {
+                moves.add(x, y, blockerX, blockerY, true);
+            }
+        }
+    }
+}
+
+
+/**
+ * represents actions of Bishop and partly of Queen.
+ */
+interface BishopMovement extends ContinuousMovementsWithOffset {
+    /**
+     * used to calculate number of possible diagonal moves and captures.
+     * @param position PiecePosition, position of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible diagonal moves and captures packed by MoveCounts
+     */
+    default long getDiagonalCounts(PiecePosition position, PieceColor color,
+                                   BoardStorage positions, int boardSize) {
+        return getContinuousCounts(position, color, positions, boardSize,
+                FIRST_DIAGONAL_DIRECTION, DIRECTIONS_COUNT);
+    }
+}
+
+
+/**
+ * represents actions of Rook and partly of Queen.
+ */
+interface RookMovement extends ContinuousMovementsWithOffset {
+    /**
+     * used to calculate number of possible orthogonal moves and captures.
+     * @param position PiecePosition, position of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible orthogonal moves and captures packed by MoveCounts
+     */
+    default long getOrthogonalCounts(PiecePosition position, PieceColor color,
+                                     BoardStorage positions, int boardSize) {
+        return getContinuousCounts(position, color, positions, boardSize,
+                FIRST_ORTHOGONAL_DIRECTION, FIRST_DIAGONAL_DIRECTION);
+    }
+}
+
+
+/**
+ * represents actions of Knight and King, which jump to fixed offsets from their position.
+ * offsets are shared MoveOffsets tables, moves leaving the board are clipped by masks of BoardGeometry
+ */
+interface LeaperMovement {
+
+    /**
+     * used to calculate number of possible moves and captures by jumping to provided offsets.
+     * @param x int, X-coordinate of considered chess piece
+     * @param y int, Y-coordinate of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param targets int, mask of offsets that stay on the board, taken from BoardGeometry
+     * @param offsets MoveOffsets, offsets of all moves
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    static long getLeaperCounts(int x, int y, PieceColor color, BoardStorage positions, int targets,
+                                MoveOffsets offsets) {
+        int moves = 0;
+        int captures = 0;
+
+        for (int rest = targets; rest != 0; rest &= rest - 1) {  // only moves that stay on the board
+            int i = Integer.numberOfTrailingZeros(rest);
+            PieceColor target = positions.getColor(x + offsets.getX(i), y + offsets.getY(i));
+            if (target == null) {  // position is empty
+                moves++;
+            } else if (target != color) {  // position contains piece of another color to capture
+                moves++;
+                captures++;
+            }
+        }
+
+        return MoveCounts.pack(moves, captures);
+    }
+
+    /**
+     * used to generate moves to provided offsets, the same ones that getLeaperCounts counts.
+     * @param x int, X-coordinate of considered chess piece
+     * @param y int, Y-coordinate of considered chess piece
+     * @param color PieceColor, color of considered chess piece
+     * @param positions BoardStorage, positions of pieces on board
+     * @param targets int, mask of offsets that stay on the board, taken from BoardGeometry
+     * @param offsets MoveOffsets, offsets of all moves
+     * @param moves MoveList, destination, moves are appended
+     */
+    static void generateLeaperMoves(int x, int y, PieceColor color, BoardStorage positions, int targets,
+                                    MoveOffsets offsets, MoveList moves) {
+        for (int rest = targets; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            int newX = x + offsets.getX(i);
+            int newY = y + offsets.getY(i);
+            PieceColor target = positions.getColor(newX, newY);
+            if (target != color) {  // empty cell or piece of another color
+                moves.add(x, y, newX, newY, target != null);
+            }
+        }
+    }
+}
+
+
+/**
+ * packs number of moves and number of captures into single long.
+ * used to return both counts from one traversal without allocations
+ */
+final class MoveCounts {
+    /**
+     * used to pack counts.
+     * @param moves int, number of moves
+     * @param captures int, number of captures
+     * @return long, packed counts
+     */
+    static long pack(int moves, int captures) {
+        return ((long) moves << Integer.SIZE) | (captures & 0xFFFFFFFFL);
+    }
+
+    /**
+     * used to extract number of moves.
+     * @param counts long, packed counts
+     * @return int, number of moves
+     */
+    static int moves(long counts) {
+        return (int) (counts >>> Integer.SIZE);
+    }
+
+    /**
+     * used to extract number of captures.
+     * @param counts long, packed counts
+     * @return int, number of captures
+     */
+    static int captures(long counts) {
+        return (int) counts;
+    }
+
+    private MoveCounts() { }  // utility class
+}
+
+
+/**
+ * reusable buffer of generated moves, every move is packed into single long.
+ * coordinates take 10 bits each, as board is at most 1000x1000, so a move does not fit into int:
+ * from x, from y, to x, to y from the lowest bits and capture flag above them
+ */
+final class MoveList {
+    /**
+     * number of bits of packed coordinate.
+     */
+    private static final int COORDINATE_BITS = 10;
+    /**
+     * mask of packed coordinate.
+     */
+    private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+    /**
+     * flag of move that captures piece.
+     */
+    private static final long CAPTURE = 1L << (4 * COORDINATE_BITS);
+    /**
+     * initial capacity of buffer.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * packed moves.
+     */
+    private long[] moves = new long[INITIAL_CAPACITY];
+    /**
+     * number of moves.
+     */
+    private int size = 0;
+
+    /**
+     * used to pack move.
+     * @param fromX int, X-coordinate of moved piece
+     * @param fromY int, Y-coordinate of moved piece
+     * @param toX int, X-coordinate of destination
+     * @param toY int, Y-coordinate of destination
+     * @param capture boolean, true if piece on destination is captured
+     * @return long, packed move
+     */
+    static long pack(int fromX, int fromY, int toX, int toY, boolean capture) {
+        long move = fromX | fromY << COORDINATE_BITS | (long) toX << (2 * COORDINATE_BITS)
+                | (long) toY << (3 * COORDINATE_BITS);
+        return capture ? move | CAPTURE : move;
+    }
+
+    /**
+     * used to extract X-coordinate of moved piece.
+     * @param move long, packed move
+     * @return int, X-coordinate
+     */
+    static int fromX(long move) {
+        return (int) move & COORDINATE_MASK;
+    }
+
+    /**
+     * used to extract Y-coordinate of moved piece.
+     * @param move long, packed move
+     * @return int, Y-coordinate
+     */
+    static int fromY(long move) {
+        return (int) (move >>> COORDINATE_BITS) & COORDINATE_MASK;
+    }
+
+    /**
+     * used to extract X-coordinate of destination.
+     * @param move long, packed move
+     * @return int, X-coordinate
+     */
+    static int toX(long move) {
+        return (int) (move >>> (2 * COORDINATE_BITS)) & COORDINATE_MASK;
+    }
+
+    /**
+     * used to extract Y-coordinate of destination.
+     * @param move long, packed move
+     * @return int, Y-coordinate
+     */
+    static int toY(long move) {
+        return (int) (move >>> (3 * COORDINATE_BITS)) & COORDINATE_MASK;
+    }
+
+    /**
+     * shows if move captures piece.
+     * @param move long, packed move
+     * @return boolean, true for capture
+     */
+    static boolean isCapture(long move) {
+        return (move & CAPTURE) != 0;
+    }
+
+    /**
+     * appends move to buffer, buffer grows if it is full.
+     * @param fromX int, X-coordinate of moved piece
+     * @param fromY int, Y-coordinate of moved piece
+     * @param toX int, X-coordinate of destination
+     * @param toY int, Y-coordinate of destination
+     * @param capture boolean, true if piece on destination is captured
+     */
+    public void add(int fromX, int fromY, int toX, int toY, boolean capture) {
+        if (this.size == this.moves.length) {
+            this.moves = Arrays.copyOf(this.moves, 2 * this.size);
+        }
+        this.moves[this.size++] = pack(fromX, fromY, toX, toY, capture);
+    }
+
+    /**
+     * getter for packed move.
+     * @param index int, index of move
+     * @return long, packed move
+     */
+    public long get(int index) {
+        return this.moves[index];
+    }
+
+    /**
+     * getter for number of moves.
+     * @return int, number of moves
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * drops moves starting from specified index, buffer keeps its capacity.
+     * used to keep moves of all plies of search in one buffer as a stack
+     * @param newSize int, number of kept moves
+     */
+    public void truncate(int newSize) {
+        this.size = newSize;
+    }
+
+    /**
+     * drops all moves, buffer keeps its capacity.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+}
+
+
+/**
+ * represents Knight chess piece.
+ */
+class Knight extends ChessPiece implements LeaperMovement {
+    /**
+     * creates a Knight chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    Knight(PiecePosition piecePosition, PieceColor pieceColor) {
+        super(piecePosition, pieceColor);
+    }
+
+    @Override
+    public PieceType getType() {
+        return PieceType.KNIGHT;
+    }
+
+    /**
+     * used to calculate number of possible moves for Knight.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible moves
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.moves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible captures for Knight.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.captures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for Knight.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return PieceType.KNIGHT.getCounts(this.position.getX(), this.position.getY(), this.color,
+                positions, boardSize);
+    }
+}
+
+
+/**
+ * represents King chess piece.
+ */
+class King extends ChessPiece implements LeaperMovement {
+   /**
+     * creates a King chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    King(PiecePosition piecePosition, PieceColor pieceColor) {
+        super(piecePosition, pieceColor);
+    }
+
+    @Override
+    public PieceType getType() {
+        return PieceType.KING;
+    }
+
+    /**
+     * used to calculate number of possible moves for King.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible moves
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.moves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible captures for King.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.captures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for King.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return PieceType.KING.getCounts(this.position.getX(), this.position.getY(), this.color,
+                positions, boardSize);
+    }
+}
+
+
+/**
+ * represents Pawn chess piece.
+ */
+class Pawn extends ChessPiece {
+    /**
+     * creates a Pawn chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    Pawn(PiecePosition piecePosition, PieceColor pieceColor) {
+        super(piecePosition, pieceColor);
+    }
+
+    @Override
+    public PieceType getType() {
+        return PieceType.PAWN;
+    }
+
+    /**
+     * used to calculate number of possible moves for Pawn.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return number of possible moves
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.moves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible captures for Pawn.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.captures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for Pawn.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getPawnCounts(this.position.getX(), this.position.getY(), this.color, positions, boardSize);
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for Pawn given by its coordinates.
+     * @param x int, X-coordinate of Pawn
+     * @param y int, Y-coordinate of Pawn
+     * @param color PieceColor, color of Pawn
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    static long getPawnCounts(int x, int y, PieceColor color, BoardStorage positions, int boardSize) {
+        int direction;  // +1 means forward, -1 - backwards
+        if (color == PieceColor.WHITE) {
+            direction = 1;
+        } else {
+            direction = -1;
+        }
+
+        int captures = 0;
+        // chess pieces on attacked positions, null for empty cells and cells outside the board
+        PieceColor target1 = positions.getColor(x - 1, y + direction);
+        PieceColor target2 = positions.getColor(x + 1, y + direction);
+        if (target1 != null && target1 != color) {  // there is a piece of another color
+            captures++;
+        }
+        if (target2 != null && target2 != color) {
+            captures++;
+        }
+
+        int moves = captures;  // because captures also can be counted as moves
+        if (PiecePosition.isValid(x, y + direction, boardSize)
+                && positions.getColor(x, y + direction) == null) {  // if cell in forward direction is empty
+            moves++;
+        }
+        return MoveCounts.pack(moves, captures);
+    }
+
+    /**
+     * used to generate moves of Pawn given by its coordinates, the same ones that getPawnCounts counts.
+     * @param x int, X-coordinate of Pawn
+     * @param y int, Y-coordinate of Pawn
+     * @param color PieceColor, color of Pawn
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @param moves MoveList, destination, moves are appended
+     */
+    static void generatePawnMoves(int x, int y, PieceColor color, BoardStorage positions, int boardSize,
+                                  MoveList moves) {
+        int direction = color == PieceColor.WHITE ? 1 : -1;
+        for (int newX = x - 1; newX <= x + 1; newX += 2) {
+            PieceColor target = positions.getColor(newX, y + direction);
+            if (target != null && target != color) {
+                moves.add(x, y, newX, y + direction, true);
+            }
+        }
+        if (PiecePosition.isValid(x, y + direction, boardSize) && positions.getColor(x, y + direction) == null) {
+            moves.add(x, y, x, y + direction, false);
+        }
+    }
+}
+
+
+/**
+ * represents Bishop chess piece.
+ */
+class Bishop extends ChessPiece implements BishopMovement {
+    /**
+     * creates a Bishop chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    Bishop(PiecePosition piecePosition, PieceColor pieceColor) {
+        super(piecePosition, pieceColor);
+    }
+
+    @Override
+    public PieceType getType() {
+        return PieceType.BISHOP;
+    }
+
+    /**
+     * used to calculate number of possible moves for Bishop.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible moves
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.moves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible captures for Bishop.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.captures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for Bishop in single walk over its rays.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getDiagonalCounts(this.position, this.color, positions, boardSize);
+    }
+}
+
+
+/**
+ * represents Rook chess piece.
+ */
+class Rook extends ChessPiece implements RookMovement {
+    /**
+     * creates a Rook chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    Rook(PiecePosition piecePosition, PieceColor pieceColor) {
+        super(piecePosition, pieceColor);
+    }
+
+    @Override
+    public PieceType getType() {
+        return PieceType.ROOK;
+    }
+
+    /**
+     * used to calculate number of possible moves for Rook.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible moves
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.moves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible captures for Rook.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.captures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for Rook in single walk over its rays.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getOrthogonalCounts(this.position, this.color, positions, boardSize);
+    }
+}
+
+
+/**
+ * represents Queen chess piece.
+ */
+class Queen extends ChessPiece implements BishopMovement, RookMovement {
+    /**
+     * creates a Queen chess piece with specified position and color.
+     * @param piecePosition position on the board
+     * @param pieceColor color of a piece
+     */
+    Queen(PiecePosition piecePosition, PieceColor pieceColor) {
+        super(piecePosition, pieceColor);
+    }
+
+    @Override
+    public PieceType getType() {
+        return PieceType.QUEEN;
+    }
+
+    /**
+     * used to calculate number of possible moves for Queen.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible moves
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.moves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible captures for Queen.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return int, number of possible captures
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return MoveCounts.captures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for Queen in single walk over its rays.
+     * @param positions BoardStorage, positions of pieces on board
+     * @param boardSize int, size of board
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getContinuousCounts(this.position, this.color, positions, boardSize,
+                FIRST_ORTHOGONAL_DIRECTION, DIRECTIONS_COUNT);
+    }
+}
+
+
+/**
+ * stores chess pieces as struct of primitive arrays: types, colors and packed coordinates.
+ * keeps pieces of large boards without object per piece, ChessPiece objects are created only as views.
+ * also defines byte codes of pieces used by storages of the board
+ */
+final class PieceStore {
+    /**
+     * code of empty cell.
+     */
+    static final byte EMPTY = 0;
+    /**
+     * initial capacity of arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * number of bits of packed Y-coordinate.
+     */
+    private static final int COORDINATE_BITS = 16;
+    /**
+     * mask of packed Y-coordinate.
+     */
+    private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+    /**
+     * all types by ordinal, cached to avoid copying values() on every lookup.
+     */
+    private static final PieceType[] TYPES = PieceType.values();
+    /**
+     * all colors by ordinal.
+     */
+    private static final PieceColor[] COLORS = PieceColor.values();
+
+    /**
+     * ordinals of types of pieces.
+     */
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    /**
+     * colors of pieces as bitset, set bit stands for black piece.
+     */
+    private long[] black = new long[(INITIAL_CAPACITY >>> 6) + 1];
+    /**
+     * coordinates of pieces packed as x << 16 | y.
+     */
+    private int[] coordinates = new int[INITIAL_CAPACITY];
+    /**
+     * number of pieces.
+     */
+    private int size = 0;
+
+    /**
+     * creates store with the same pieces as list, in the same order.
+     * @param pieces List<ChessPiece>
+     * @return PieceStore
+     */
+    static PieceStore of(List<ChessPiece> pieces) {
+        PieceStore store = new PieceStore();
+        for (ChessPiece piece: pieces) {
+            PiecePosition position = piece.getPosition();
+            store.add(piece.getType(), piece.getColor(), position.getX(), position.getY());
+        }
+        return store;
+    }
+
+    /**
+     * used to append piece.
+     * @param type PieceType
+     * @param color PieceColor
+     * @param x int, X-coordinate
+     * @param y int, Y-coordinate
+     * @return int, index of added piece
+     */
+    public int add(PieceType type, PieceColor color, int x, int y) {
+        if (this.size == this.types.length) {
+            this.types = Arrays.copyOf(this.types, 2 * this.size);
+            this.coordinates = Arrays.copyOf(this.coordinates, 2 * this.size);
+            this.black = Arrays.copyOf(this.black, ((2 * this.size) >>> 6) + 1);
+        }
+        int index = this.size++;
+        this.types[index] = (byte) type.ordinal();
+        this.coordinates[index] = x << COORDINATE_BITS | y;
+        if (color == PieceColor.BLACK) {
+            this.black[index >>> 6] |= 1L << index;
+        } else {
+            this.black[index >>> 6] &= ~(1L << index);
+        }
+        return index;
+    }
+
+    /**
+     * getter for number of pieces.
+     * @return int
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * used to remove all pieces, arrays are kept to be reused.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * getter for type of piece.
+     * @param index int, index of piece
+     * @return PieceType
+     */
+    public PieceType getType(int index) {
+        return TYPES[this.types[index]];
+    }
+
+    /**
+     * getter for color of piece.
+     * @param index int, index of piece
+     * @return PieceColor
+     */
+    public PieceColor getColor(int index) {
+        return (this.black[index >>> 6] & 1L << index) != 0 ? PieceColor.BLACK : PieceColor.WHITE;
+    }
+
+    /**
+     * getter for X-coordinate of piece.
+     * @param index int, index of piece
+     * @return int
+     */
+    public int getX(int index) {
+        return this.coordinates[index] >>> COORDINATE_BITS;
+    }
+
+    /**
+     * getter for Y-coordinate of piece.
+     * @param index int, index of piece
+     * @return int
+     */
+    public int getY(int index) {
+        return this.coordinates[index] & COORDINATE_MASK;
+    }
+
+    /**
+     * creates ChessPiece object for piece, changes of store are not reflected in it.
+     * @param index int, index of piece
+     * @return ChessPiece
+     */
+    public ChessPiece view(int index) {
+        return getType(index).create(new PiecePosition(getX(index), getY(index)), getColor(index));
+    }
+
+    /**
+     * used to get code of piece kept in storages of the board, codes of non-empty cells are positive.
+     * @param type PieceType
+     * @param color PieceColor
+     * @return byte, code
+     */
+    static byte code(PieceType type, PieceColor color) {
+        return (byte) ((type.ordinal() << 1 | color.ordinal()) + 1);
+    }
+
+    /**
+     * used to get type from code.
+     * @param code byte, code of non-empty cell
+     * @return PieceType
+     */
+    static PieceType typeOf(byte code) {
+        return TYPES[(code - 1) >>> 1];
+    }
+
+    /**
+     * used to get color from code.
+     * @param code byte, code of non-empty cell
+     * @return PieceColor
+     */
+    static PieceColor colorOf(byte code) {
+        return COLORS[(code - 1) & 1];
+    }
+}
+
+
+/**
+ * Zobrist hashing of positions: hash of position is XOR of keys of all pieces, so it is updated
+ * by single XOR when piece is placed or removed. keys are derived from piece code and cell by SplitMix64,
+ * so no table of size * size * codes keys is kept for large boards
+ */
+final class Zobrist {
+    /**
+     * increment of SplitMix64 sequence, fractional part of golden ratio.
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    /**
+     * number of bits of packed coordinate.
+     */
+    private static final int COORDINATE_BITS = 10;
+
+    /**
+     * used to get key of piece on cell.
+     * @param code byte, code of piece, not PieceStore.EMPTY
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return long, key
+     */
+    static long key(byte code, int x, int y) {
+        long position = (long) code << (2 * COORDINATE_BITS) | (long) x << COORDINATE_BITS | y;
+        return mix((position + 1) * GOLDEN_GAMMA);  // element of SplitMix64 sequence with index position
+    }
+
+    /**
+     * finalizer of SplitMix64.
+     * @param value long, state
+     * @return long, well mixed bits of state
+     */
+    static long mix(long value) {
+        long z = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private Zobrist() { }  // utility class
+}
+
+
+/**
+ * keeps tables that depend only on size of the board: distances to the edge along every direction,
+ * strides of directions in packed cell indices and masks of leaper moves that stay on the board.
+ * tables are factored by axis, so they take O(size) memory, and are shared by all boards of the same size
+ * through small LRU cache
+ */
+final class BoardGeometry {
+    /**
+     * maximal number of cached geometries.
+     */
+    private static final int CACHE_CAPACITY = 32;
+    /**
+     * cached geometries by size of the board, in access order.
+     */
+    private static final Map<Integer, BoardGeometry> CACHE =
+            new LinkedHashMap<Integer, BoardGeometry>(CACHE_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, BoardGeometry> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * steps from X-coordinate to the edge along X part of every direction, indexed by direction and x.
+     */
+    private final int[][] edgeX;
+    /**
+     * same as edgeX but for Y-coordinates.
+     */
+    private final int[][] edgeY;
+    /**
+     * change of packed index (x - 1) * size + (y - 1) after single step along every direction.
+     */
+    private final int[] strides;
+    /**
+     * masks of Knight moves that keep X-coordinate on the board, indexed by x.
+     */
+    private final int[] knightX;
+    /**
+     * same as knightX but for Y-coordinates.
+     */
+    private final int[] knightY;
+    /**
+     * masks of King moves that keep X-coordinate on the board, indexed by x.
+     */
+    private final int[] kingX;
+    /**
+     * same as kingX but for Y-coordinates.
+     */
+    private final int[] kingY;
+
+    /**
+     * builds tables for board of specified size.
+     * @param boardSize int, size of the board
+     */
+    private BoardGeometry(int boardSize) {
+        this.size = boardSize;
+        int directions = ContinuousMovementsWithOffset.DIRECTIONS_COUNT;
+        this.edgeX = new int[directions][];
+        this.edgeY = new int[directions][];
+        this.strides = new int[directions];
+        for (int i = 0; i < directions; i++) {
+            this.edgeX[i] = edges(MoveOffsets.DIRECTIONS.getX(i));
+            this.edgeY[i] = edges(MoveOffsets.DIRECTIONS.getY(i));
+            this.strides[i] = MoveOffsets.DIRECTIONS.getX(i) * boardSize + MoveOffsets.DIRECTIONS.getY(i);
+        }
+        this.knightX = targets(MoveOffsets.KNIGHT, true);
+        this.knightY = targets(MoveOffsets.KNIGHT, false);
+        this.kingX = targets(MoveOffsets.KING, true);
+        this.kingY = targets(MoveOffsets.KING, false);
+    }
+
+    /**
+     * used to get geometry of board of specified size, built at first request.
+     * @param boardSize int, size of the board
+     * @return BoardGeometry
+     */
+    static BoardGeometry of(int boardSize) {
+        synchronized (CACHE) {
+            return CACHE.computeIfAbsent(boardSize, BoardGeometry::new);
+        }
+    }
+
+    /**
+     * builds steps to the edge for every coordinate along single axis.
+     * @param offset int, offset of direction along the axis
+     * @return int[], steps by coordinate, Integer.MAX_VALUE if direction does not move along the axis
+     */
+    private int[] edges(int offset) {
+        int[] steps = new int[this.size + 1];
+        for (int c = 1; c <= this.size; c++) {
+            if (offset > 0) {
+                steps[c] = this.size + 1 - c;
+            } else if (offset < 0) {
+                steps[c] = c;
+            } else {
+                steps[c] = Integer.MAX_VALUE;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * builds masks of offsets that keep coordinate on the board.
+     * @param offsets MoveOffsets, moves of leaper
+     * @param alongX boolean, true to consider offsets in X, false for Y
+     * @return int[], masks by coordinate, bit i stands for i-th offset
+     */
+    private int[] targets(MoveOffsets offsets, boolean alongX) {
+        int[] masks = new int[this.size + 1];
+        for (int c = 1; c <= this.size; c++) {
+            for (int i = 0; i < offsets.size(); i++) {
+                int offset = alongX ? offsets.getX(i) : offsets.getY(i);
+                if (c + offset >= 1 && c + offset <= this.size) {
+                    masks[c] |= 1 << i;
+                }
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * getter for size of the board.
+     * @return int, size of the board
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * used to get number of steps from the cell to the first cell outside the board.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param direction int, index of direction in MoveOffsets.DIRECTIONS
+     * @return int, number of steps
+     */
+    public int getEdgeDistance(int x, int y, int direction) {
+        return Math.min(this.edgeX[direction][x], this.edgeY[direction][y]);
+    }
+
+    /**
+     * used to get change of packed index after single step.
+     * @param direction int, index of direction in MoveOffsets.DIRECTIONS
+     * @return int, stride
+     */
+    public int getStride(int direction) {
+        return this.strides[direction];
+    }
+
+    /**
+     * used to get Knight moves from the cell that stay on the board.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return int, mask with bit i set if i-th move of MoveOffsets.KNIGHT stays on the board
+     */
+    public int getKnightTargets(int x, int y) {
+        return this.knightX[x] & this.knightY[y];
+    }
+
+    /**
+     * used to get King moves from the cell that stay on the board.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return int, mask with bit i set if i-th move of MoveOffsets.KING stays on the board
+     */
+    public int getKingTargets(int x, int y) {
+        return this.kingX[x] & this.kingY[y];
+    }
+}
+
+
+/**
+ * represents storage of chess pieces placed on the board.
+ * cells are addressed by coordinates, out-of-board cells are always empty
+ */
+interface BoardStorage {
+    /**
+     * getter for size of the board.
+     * @return int, size of the board
+     */
+    int getSize();
+
+    /**
+     * getter for tables shared by all boards of the same size.
+     * @return BoardGeometry
+     */
+    BoardGeometry getGeometry();
+
+    /**
+     * used to get code of chess piece by its coordinates.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return byte, code made by PieceStore.code, PieceStore.EMPTY if cell is empty or lies outside the board
+     */
+    byte getCode(int x, int y);
+
+    /**
+     * used to place chess piece given by its code, previous content of the cell is overwritten.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param code byte, code made by PieceStore.code
+     */
+    void putCode(int x, int y, byte code);
+
+    /**
+     * used to get chess piece by its coordinates.
+     * storages keep only codes, so new object is created for every call
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return ChessPiece, null if cell is empty or lies outside the board
+     */
+    default ChessPiece getPiece(int x, int y) {
+        byte code = getCode(x, y);
+        if (code == PieceStore.EMPTY) {
+            return null;
+        }
+        return PieceStore.typeOf(code).create(new PiecePosition(x, y), PieceStore.colorOf(code));
+    }
+
+    /**
+     * used to get color of chess piece by its coordinates.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return PieceColor, null if cell is empty or lies outside the board
+     */
+    default PieceColor getColor(int x, int y) {
+        byte code = getCode(x, y);
+        return code == PieceStore.EMPTY ? null : PieceStore.colorOf(code);
+    }
+
+    /**
+     * used to place chess piece on its position, previous content of the cell is overwritten.
+     * @param piece ChessPiece
+     */
+    default void putPiece(ChessPiece piece) {
+        PiecePosition position = piece.getPosition();
+        putCode(position.getX(), position.getY(), PieceStore.code(piece.getType(), piece.getColor()));
+    }
+
+    /**
+     * used to make cell empty.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     */
+    void removePiece(int x, int y);
+
+    /**
+     * used to make all cells empty, so that storage can be reused for another board of the same size.
+     */
+    void clear();
+
+    /**
+     * used to calculate number of possible moves and captures for chess piece placed in this storage.
+     * @param piece ChessPiece, considered piece
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    default long getCounts(ChessPiece piece) {
+        PiecePosition position = piece.getPosition();
+        return getCounts(piece.getType(), piece.getColor(), position.getX(), position.getY());
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for chess piece given by type, color and cell.
+     * storages may override it with specialized engine, by default piece walks the storage itself
+     * @param type PieceType, type of considered piece
+     * @param color PieceColor, color of considered piece
+     * @param x int, X-coordinate of considered piece
+     * @param y int, Y-coordinate of considered piece
+     * @return long, number of possible moves and captures packed by MoveCounts
+     */
+    default long getCounts(PieceType type, PieceColor color, int x, int y) {
+        return type.getCounts(x, y, color, this, getSize());
+    }
+
+    /**
+     * used to find the nearest occupied cell along the ray from the cell.
+     * by default ray is walked cell by cell, storages may override it with faster lookup
+     * @param x int, X-coordinate of start cell
+     * @param y int, Y-coordinate of start cell
+     * @param direction int, index of direction in MoveOffsets.DIRECTIONS
+     * @return int, number of steps to the nearest occupied cell,
+     *         or to the first cell outside the board if the ray is empty
+     */
+    default int getBlockerDistance(int x, int y, int direction) {
+        int offsetX = MoveOffsets.DIRECTIONS.getX(direction);
+        int offsetY = MoveOffsets.DIRECTIONS.getY(direction);
+        int edge = getGeometry().getEdgeDistance(x, y, direction);
+        int distance = 1;
+        while (distance < edge && getCode(x + offsetX * distance, y + offsetY * distance) == PieceStore.EMPTY) {
+            distance++;
+        }
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, Math.min(distance, edge - 1));
+        }
+        return distance;
+    }
+}
+
+
+/**
+ * stores codes of chess pieces in flat array keyed by packed index (x - 1) * size + (y - 1).
+ * lookups do not allocate and take constant time
+ */
+class DenseBoardStorage implements BoardStorage {
+    /**
+     * codes of chess pieces by packed index, PieceStore.EMPTY for empty cells.
+     */
+    private final byte[] cells;
+    /**
+     * size of the board.
+     */
+    protected final int size;
+    /**
+     * tables shared by all boards of the same size.
+     */
+    protected final BoardGeometry geometry;
+
+    /**
+     * creates an empty storage for board with specified size.
+     * @param boardSize int, size of the board
+     */
+    DenseBoardStorage(int boardSize) {
+        this.size = boardSize;
+        this.geometry = BoardGeometry.of(boardSize);
+        this.cells = new byte[boardSize * boardSize];
+    }
+
+    /**
+     * used to convert coordinates into packed index.
+     * @param x int, X-coordinate of cell (1-based)
+     * @param y int, Y-coordinate of cell (1-based)
+     * @return int, index in cells
+     */
+    private int index(int x, int y) {
+        return (x - 1) * this.size + (y - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public byte getCode(int x, int y) {
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.LOOKUPS, 1);
+        }
+        if (x < 1 || y < 1 || x > this.size || y > this.size) {  // out of board
+            return PieceStore.EMPTY;
+        }
+        return this.cells[index(x, y)];
+    }
+
+    @Override
+    public BoardGeometry getGeometry() {
+        return this.geometry;
+    }
+
+    @Override
+    public void putCode(int x, int y, byte code) {
+        this.cells[index(x, y)] = code;
+    }
+
+    /**
+     * walks the ray over packed indices, no bounds are checked as the edge is known in advance.
+     * @param x int, X-coordinate of start cell
+     * @param y int, Y-coordinate of start cell
+     * @param direction int, index of direction in MoveOffsets.DIRECTIONS
+     * @return int, number of steps to the nearest occupied cell,
+     *         or to the first cell outside the board if the ray is empty
+     */
+    @Override
+    public int getBlockerDistance(int x, int y, int direction) {
+        int edge = this.geometry.getEdgeDistance(x, y, direction);
+        int stride = this.geometry.getStride(direction);
+        int index = index(x, y);
+        int distance = 1;
+        for (; distance < edge; distance++) {
+            index += stride;
+            if (this.cells[index] != PieceStore.EMPTY) {
+                break;
+            }
+        }
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.LOOKUPS, Math.min(distance, edge - 1));
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, Math.min(distance, edge - 1));
+        }
+        return distance;
+    }
+
+    @Override
+    public void removePiece(int x, int y) {
+        this.cells[index(x, y)] = PieceStore.EMPTY;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.cells, PieceStore.EMPTY);
+    }
+}
+
+
+/**
+ * stores occupancy of every row, column, diagonal and anti-diagonal as multi-word bitset.
+ * nearest blocker along a ray is found by scanning words with numberOfTrailingZeros/numberOfLeadingZeros,
+ * so empty stretches of the ray are skipped 64 cells at a time
+ */
+class BitsetBoardStorage extends DenseBoardStorage {
+    /**
+     * number of longs in bitset of every line, bit with index of coordinate along the line stands for the cell.
+     */
+    private final int words;
+    /**
+     * bitsets of columns: line y, bit x.
+     */
+    private final long[] columns;
+    /**
+     * bitsets of rows: line x, bit y.
+     */
+    private final long[] rows;
+    /**
+     * bitsets of diagonals going up right: line x - y + size, bit x.
+     */
+    private final long[] diagonals;
+    /**
+     * bitsets of anti-diagonals going up left: line x + y, bit x.
+     */
+    private final long[] antiDiagonals;
+
+    /**
+     * creates an empty storage for board with specified size.
+     * @param boardSize int, size of the board
+     */
+    BitsetBoardStorage(int boardSize) {
+        super(boardSize);
+        this.words = (boardSize >>> 6) + 1;  // bits from 0 to boardSize
+        this.columns = new long[(boardSize + 1) * this.words];
+        this.rows = new long[(boardSize + 1) * this.words];
+        this.diagonals = new long[2 * boardSize * this.words];
+        this.antiDiagonals = new long[(2 * boardSize + 1) * this.words];
+    }
+
+    @Override
+    public void putCode(int x, int y, byte code) {
+        super.putCode(x, y, code);
+        update(x, y, true);
+    }
+
+    @Override
+    public void removePiece(int x, int y) {
+        super.removePiece(x, y);
+        update(x, y, false);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        Arrays.fill(this.columns, 0);
+        Arrays.fill(this.rows, 0);
+        Arrays.fill(this.diagonals, 0);
+        Arrays.fill(this.antiDiagonals, 0);
+    }
+
+    /**
+     * sets or clears bits of the cell in all its lines.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param occupied boolean, true to set bits
+     */
+    private void update(int x, int y, boolean occupied) {
+        setBit(this.columns, y * this.words, x, occupied);
+        setBit(this.rows, x * this.words, y, occupied);
+        setBit(this.diagonals, (x - y + this.size) * this.words, x, occupied);
+        setBit(this.antiDiagonals, (x + y) * this.words, x, occupied);
+    }
+
+    /**
+     * sets or clears single bit of line.
+     * @param bits long[], bitsets of lines
+     * @param line int, index of first word of line
+     * @param bit int, index of bit in line
+     * @param value boolean, true to set bit
+     */
+    private static void setBit(long[] bits, int line, int bit, boolean value) {
+        if (value) {
+            bits[line + (bit >>> 6)] |= 1L << bit;
+        } else {
+            bits[line + (bit >>> 6)] &= ~(1L << bit);
+        }
+    }
+
+    @Override
+    public int getBlockerDistance(int x, int y, int direction) {
+        int offsetX = MoveOffsets.DIRECTIONS.getX(direction);
+        int offsetY = MoveOffsets.DIRECTIONS.getY(direction);
+        int blocker;  // coordinate of the nearest blocker along the line, -1 if there is none
+        int from;  // coordinate of the start cell along the line
+        if (offsetX == 0) {  // row, coordinate is y
+            from = y;
+            blocker = offsetY > 0 ? nextSetBit(this.rows, x * this.words, y + 1)
+                    : previousSetBit(this.rows, x * this.words, y - 1);
+        } else {
+            from = x;
+            long[] bits;
+            int line;
+            if (offsetY == 0) {
+                bits = this.columns;
+                line = y * this.words;
+            } else if (offsetX == offsetY) {
+                bits = this.diagonals;
+                line = (x - y + this.size) * this.words;
+            } else {
+                bits = this.antiDiagonals;
+                line = (x + y) * this.words;
+            }
+            blocker = offsetX > 0 ? nextSetBit(bits, line, x + 1) : previousSetBit(bits, line, x - 1);
+        }
+
+        if (blocker < 0) {  // ray is empty up to the edge
+            return this.geometry.getEdgeDistance(x, y, direction);
+        }
+        return Math.abs(blocker - from);
+    }
+
+    /**
+     * used to find the lowest set bit of line starting from specified bit.
+     * @param bits long[], bitsets of lines
+     * @param line int, index of first word of line
+     * @param from int, first considered bit (inclusive)
+     * @return int, index of found bit, -1 if there is none
+     */
+    private int nextSetBit(long[] bits, int line, int from) {
+        int first = from >>> 6;
+        if (first >= this.words) {
+            return -1;
+        }
+        int word = first;
+        long current = bits[line + word] & (-1L << from);  // shift uses only 6 lower bits of from
+        while (current == 0 && word + 1 < this.words) {
+            word++;
+            current = bits[line + word];
+        }
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, word - first + 1);
+        }
+        return current == 0 ? -1 : (word << 6) + Long.numberOfTrailingZeros(current);
+    }
+
+    /**
+     * used to find the highest set bit of line up to specified bit.
+     * @param bits long[], bitsets of lines
+     * @param line int, index of first word of line
+     * @param from int, last considered bit (inclusive)
+     * @return int, index of found bit, -1 if there is none
+     */
+    private static int previousSetBit(long[] bits, int line, int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int first = from >>> 6;
+        int word = first;
+        long current = bits[line + word] & (-1L >>> (63 - (from & 63)));
+        while (current == 0 && word > 0) {
+            word--;
+            current = bits[line + word];
+        }
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, first - word + 1);
+        }
+        return current == 0 ? -1 : (word << 6) + 63 - Long.numberOfLeadingZeros(current);
+    }
+}
+
+
+/**
+ * keeps coordinates of pieces of every row, column, diagonal and anti-diagonal in sorted primitive arrays.
+ * nearest blocker along a ray is the neighbour in sorted array, found by binary search in O(log k),
+ * which suits large sparse boards
+ */
+class SortedLinesBoardStorage extends DenseBoardStorage {
+    /**
+     * initial capacity of array of a line.
+     */
+    private static final int LINE_CAPACITY = 4;
+
+    /**
+     * sorted X-coordinates of pieces of columns, indexed by y.
+     */
+    private final int[][] columns;
+    /**
+     * sorted Y-coordinates of pieces of rows, indexed by x.
+     */
+    private final int[][] rows;
+    /**
+     * sorted X-coordinates of pieces of diagonals going up right, indexed by x - y + size.
+     */
+    private final int[][] diagonals;
+    /**
+     * sorted X-coordinates of pieces of anti-diagonals going up left, indexed by x + y.
+     */
+    private final int[][] antiDiagonals;
+    /**
+     * number of pieces in every column.
+     */
+    private final int[] columnsLengths;
+    /**
+     * number of pieces in every row.
+     */
+    private final int[] rowsLengths;
+    /**
+     * number of pieces in every diagonal.
+     */
+    private final int[] diagonalsLengths;
+    /**
+     * number of pieces in every anti-diagonal.
+     */
+    private final int[] antiDiagonalsLengths;
+
+    /**
+     * creates an empty storage for board with specified size.
+     * @param boardSize int, size of the board
+     */
+    SortedLinesBoardStorage(int boardSize) {
+        super(boardSize);
+        this.columns = new int[boardSize + 1][];
+        this.rows = new int[boardSize + 1][];
+        this.diagonals = new int[2 * boardSize][];
+        this.antiDiagonals = new int[2 * boardSize + 1][];
+        this.columnsLengths = new int[boardSize + 1];
+        this.rowsLengths = new int[boardSize + 1];
+        this.diagonalsLengths = new int[2 * boardSize];
+        this.antiDiagonalsLengths = new int[2 * boardSize + 1];
+    }
+
+    @Override
+    public void putCode(int x, int y, byte code) {
+        if (getCode(x, y) == PieceStore.EMPTY) {  // replaced piece is already indexed
+            insert(this.columns, this.columnsLengths, y, x);
+            insert(this.rows, this.rowsLengths, x, y);
+            insert(this.diagonals, this.diagonalsLengths, x - y + this.size, x);
+            insert(this.antiDiagonals, this.antiDiagonalsLengths, x + y, x);
+        }
+        super.putCode(x, y, code);
+    }
+
+    @Override
+    public void removePiece(int x, int y) {
+        if (getCode(x, y) != PieceStore.EMPTY) {
+            delete(this.columns, this.columnsLengths, y, x);
+            delete(this.rows, this.rowsLengths, x, y);
+            delete(this.diagonals, this.diagonalsLengths, x - y + this.size, x);
+            delete(this.antiDiagonals, this.antiDiagonalsLengths, x + y, x);
+        }
+        super.removePiece(x, y);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        // arrays of lines are kept to be reused
+        Arrays.fill(this.columnsLengths, 0);
+        Arrays.fill(this.rowsLengths, 0);
+        Arrays.fill(this.diagonalsLengths, 0);
+        Arrays.fill(this.antiDiagonalsLengths, 0);
+    }
+
+    /**
+     * inserts coordinate into sorted array of line.
+     * @param lines int[][], arrays of lines
+     * @param lengths int[], lengths of lines
+     * @param line int, index of line
+     * @param coordinate int, inserted coordinate, not present in line
+     */
+    private static void insert(int[][] lines, int[] lengths, int line, int coordinate) {
+        int[] values = lines[line];
+        int length = lengths[line];
+        if (values == null) {
+            values = new int[LINE_CAPACITY];
+        } else if (length == values.length) {
+            values = Arrays.copyOf(values, 2 * length);
+        }
+        lines[line] = values;
+        int position = -(Arrays.binarySearch(values, 0, length, coordinate) + 1);
+        System.arraycopy(values, position, values, position + 1, length - position);
+        values[position] = coordinate;
+        lengths[line] = length + 1;
+    }
+
+    /**
+     * deletes coordinate from sorted array of line.
+     * @param lines int[][], arrays of lines
+     * @param lengths int[], lengths of lines
+     * @param line int, index of line
+     * @param coordinate int, deleted coordinate, present in line
+     */
+    private static void delete(int[][] lines, int[] lengths, int line, int coordinate) {
+        int[] values = lines[line];
+        int length = lengths[line];
+        int position = Arrays.binarySearch(values, 0, length, coordinate);
+        System.arraycopy(values, position + 1, values, position, length - position - 1);
+        lengths[line] = length - 1;
+    }
+
+    @Override
+    public int getBlockerDistance(int x, int y, int direction) {
+        int offsetX = MoveOffsets.DIRECTIONS.getX(direction);
+        int offsetY = MoveOffsets.DIRECTIONS.getY(direction);
+        int[] values;
+        int length;
+        int from;  // coordinate of the start cell along the line
+        boolean increasing;  // true if coordinate along the line increases in this direction
+        if (offsetX == 0) {  // row, coordinate is y
+            values = this.rows[x];
+            length = this.rowsLengths[x];
+            from = y;
+            increasing = offsetY > 0;
+        } else {
+            from = x;
+            increasing = offsetX > 0;
+            if (offsetY == 0) {
+                values = this.columns[y];
+                length = this.columnsLengths[y];
+            } else if (offsetX == offsetY) {
+                values = this.diagonals[x - y + this.size];
+                length = this.diagonalsLengths[x - y + this.size];
+            } else {
+                values = this.antiDiagonals[x + y];
+                length = this.antiDiagonalsLengths[x + y];
+            }
+        }
+
+        int position = length == 0 ? -1 : Arrays.binarySearch(values, 0, length, from);
+        if (EngineMetrics.ENABLED) {  // binary search probes at most this many values
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, Integer.SIZE - Integer.numberOfLeadingZeros(length));
+        }
+        int insertion = position >= 0 ? position : -(position + 1);  // first value greater or equal to from
+        int neighbour;  // index of the nearest blocker in values
+        if (increasing) {
+            neighbour = position >= 0 ? position + 1 : insertion;
+        } else {
+            neighbour = insertion - 1;
+        }
+
+        if (neighbour < 0 || neighbour >= length) {  // ray is empty up to the edge
+            return this.geometry.getEdgeDistance(x, y, direction);
+        }
+        return Math.abs(values[neighbour] - from);
+    }
+}
+
+
+/**
+ * stores codes of chess pieces outside the heap, one byte per cell of direct buffer keyed by (x - 1) * size + (y - 1).
+ * full 1000x1000 board takes 1 MB of native memory and is not scanned by GC.
+ * direct buffers are slow to allocate, so boards of this backend are meant to be reused through BoardPool
+ */
+class OffHeapBoardStorage implements BoardStorage {
+    /**
+     * codes of chess pieces by packed index, PieceStore.EMPTY for empty cells.
+     */
+    private final ByteBuffer cells;
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * tables shared by all boards of the same size.
+     */
+    private final BoardGeometry geometry;
+
+    /**
+     * creates an empty storage for board with specified size.
+     * @param boardSize int, size of the board
+     */
+    OffHeapBoardStorage(int boardSize) {
+        this.size = boardSize;
+        this.geometry = BoardGeometry.of(boardSize);
+        this.cells = ByteBuffer.allocateDirect(boardSize * boardSize);  // zeroed, i.e. empty
+    }
+
+    /**
+     * used to convert coordinates into packed index.
+     * @param x int, X-coordinate of cell (1-based)
+     * @param y int, Y-coordinate of cell (1-based)
+     * @return int, index in cells
+     */
+    private int index(int x, int y) {
+        return (x - 1) * this.size + (y - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public byte getCode(int x, int y) {
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.LOOKUPS, 1);
+        }
+        if (x < 1 || y < 1 || x > this.size || y > this.size) {  // out of board
+            return PieceStore.EMPTY;
+        }
+        return this.cells.get(index(x, y));  // absolute access, so concurrent readers do not interfere
+    }
+
+    @Override
+    public BoardGeometry getGeometry() {
+        return this.geometry;
+    }
+
+    @Override
+    public int getBlockerDistance(int x, int y, int direction) {
+        int edge = this.geometry.getEdgeDistance(x, y, direction);
+        int stride = this.geometry.getStride(direction);
+        int index = index(x, y);
+        int distance = 1;
+        for (; distance < edge; distance++) {  // edge is known, so indices are not checked
+            index += stride;
+            if (this.cells.get(index) != PieceStore.EMPTY) {
+                break;
+            }
+        }
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.LOOKUPS, Math.min(distance, edge - 1));
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, Math.min(distance, edge - 1));
+        }
+        return distance;
+    }
+
+    @Override
+    public void putCode(int x, int y, byte code) {
+        this.cells.put(index(x, y), code);
+    }
+
+    @Override
+    public void removePiece(int x, int y) {
+        this.cells.put(index(x, y), PieceStore.EMPTY);
+    }
+
+    @Override
+    public void clear() {
+        int length = this.cells.capacity();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {  // eight cells at once
+            this.cells.putLong(i, 0L);
+        }
+        for (; i < length; i++) {
+            this.cells.put(i, PieceStore.EMPTY);
+        }
+    }
+}
+
+
+/**
+ * stores chess pieces of 8x8 board as 64-bit occupancy masks, bit (x - 1) * 8 + (y - 1) stands for cell (x, y).
+ * counts are calculated from precomputed leaper, pawn and ray masks without walking the board
+ */
+class BitboardStorage implements BoardStorage {
+    /**
+     * size of the board.
+     */
+    static final int SIZE = 8;
+    /**
+     * number of cells.
+     */
+    private static final int CELLS = SIZE * SIZE;
+
+    /**
+     * cells reachable by Knight from every cell.
+     */
+    private static final long[] KNIGHT_MASKS = new long[CELLS];
+    /**
+     * cells reachable by King from every cell.
+     */
+    private static final long[] KING_MASKS = new long[CELLS];
+    /**
+     * cells attacked by Pawn from every cell, indexed by ordinal of color.
+     */
+    private static final long[][] PAWN_ATTACK_MASKS = new long[2][CELLS];
+    /**
+     * cell in front of Pawn for every cell, indexed by ordinal of color.
+     */
+    private static final long[][] PAWN_PUSH_MASKS = new long[2][CELLS];
+    /**
+     * cells on the ray from every cell (exclusive) to the edge, indexed by direction of ContinuousMovementsWithOffset.
+     */
+    private static final long[][] RAY_MASKS = new long[ContinuousMovementsWithOffset.DIRECTIONS_COUNT][CELLS];
+    /**
+     * shows for every direction if cells indices increase along it.
+     */
+    private static final boolean[] INCREASING = new boolean[ContinuousMovementsWithOffset.DIRECTIONS_COUNT];
+
+    static {
+        for (int x = 1; x <= SIZE; x++) {
+            for (int y = 1; y <= SIZE; y++) {
+                int cell = index(x, y);
+                KNIGHT_MASKS[cell] = leaperMask(x, y, MoveOffsets.KNIGHT);
+                KING_MASKS[cell] = leaperMask(x, y, MoveOffsets.KING);
+                for (PieceColor color: PieceColor.values()) {
+                    int direction = color == PieceColor.WHITE ? 1 : -1;  // +1 means forward, -1 - backwards
+                    PAWN_ATTACK_MASKS[color.ordinal()][cell] = bit(x - 1, y + direction) | bit(x + 1, y + direction);
+                    PAWN_PUSH_MASKS[color.ordinal()][cell] = bit(x, y + direction);
+                }
+                for (int i = 0; i < ContinuousMovementsWithOffset.DIRECTIONS_COUNT; i++) {
+                    int offsetX = MoveOffsets.DIRECTIONS.getX(i);
+                    int offsetY = MoveOffsets.DIRECTIONS.getY(i);
+                    for (int step = 1; step < SIZE; step++) {
+                        RAY_MASKS[i][cell] |= bit(x + offsetX * step, y + offsetY * step);
+                    }
+                    INCREASING[i] = offsetX * SIZE + offsetY > 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * tables of 8x8 board.
+     */
+    private static final BoardGeometry GEOMETRY = BoardGeometry.of(SIZE);
+
+    /**
+     * codes of chess pieces by cell index, PieceStore.EMPTY for empty cells.
+     */
+    private final byte[] cells = new byte[CELLS];
+    /**
+     * cells occupied by pieces, indexed by ordinal of color.
+     */
+    private final long[] occupied = new long[2];
+
+    /**
+     * used to convert coordinates into cell index.
+     * @param x int, X-coordinate of cell (1-based)
+     * @param y int, Y-coordinate of cell (1-based)
+     * @return int, index of cell
+     */
+    private static int index(int x, int y) {
+        return (x - 1) * SIZE + (y - 1);
+    }
+
+    /**
+     * used to get mask of single cell.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return long, mask with bit of the cell, 0 if cell is outside the board
+     */
+    private static long bit(int x, int y) {
+        if (x < 1 || y < 1 || x > SIZE || y > SIZE) {
+            return 0;
+        }
+        return 1L << index(x, y);
+    }
+
+    /**
+     * used to build mask of cells at provided offsets from the cell.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param offsets MoveOffsets, offsets of all moves
+     * @return long, mask of reachable cells
+     */
+    private static long leaperMask(int x, int y, MoveOffsets offsets) {
+        long mask = 0;
+        for (int i = 0; i < offsets.size(); i++) {
+            mask |= bit(x + offsets.getX(i), y + offsets.getY(i));
+        }
+        return mask;
+    }
+
+    @Override
+    public int getSize() {
+        return SIZE;
+    }
+
+    @Override
+    public BoardGeometry getGeometry() {
+        return GEOMETRY;
+    }
+
+    @Override
+    public byte getCode(int x, int y) {
+        if (EngineMetrics.ENABLED) {
+            EngineMetrics.count(EngineMetrics.Counter.LOOKUPS, 1);
+        }
+        if (x < 1 || y < 1 || x > SIZE || y > SIZE) {  // out of board
+            return PieceStore.EMPTY;
+        }
+        return this.cells[index(x, y)];
+    }
+
+    @Override
+    public void putCode(int x, int y, byte code) {
+        int cell = index(x, y);
+        if (this.cells[cell] != PieceStore.EMPTY) {
+            this.occupied[PieceStore.colorOf(this.cells[cell]).ordinal()] &= ~(1L << cell);
+        }
+        this.cells[cell] = code;
+        this.occupied[PieceStore.colorOf(code).ordinal()] |= 1L << cell;
+    }
+
+    @Override
+    public void removePiece(int x, int y) {
+        int cell = index(x, y);
+        this.cells[cell] = PieceStore.EMPTY;
+        this.occupied[0] &= ~(1L << cell);
+        this.occupied[1] &= ~(1L << cell);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.cells, PieceStore.EMPTY);
+        this.occupied[0] = 0;
+        this.occupied[1] = 0;
+    }
+
+    @Override
+    public long getCounts(PieceType type, PieceColor pieceColor, int x, int y) {
+        int cell = index(x, y);
+        int color = pieceColor.ordinal();
+        long own = this.occupied[color];
+        long enemy = this.occupied[1 - color];
+
+        long attacks;
+        switch (type) {
+            case PAWN:
+                attacks = PAWN_ATTACK_MASKS[color][cell] & enemy;  // pawn attacks only occupied cells
+                int push = (PAWN_PUSH_MASKS[color][cell] & ~(own | enemy)) != 0 ? 1 : 0;
+                return MoveCounts.pack(Long.bitCount(attacks) + push, Long.bitCount(attacks));
+            case KNIGHT:
+                attacks = KNIGHT_MASKS[cell];
+                break;
+            case KING:
+                attacks = KING_MASKS[cell];
+                break;
+            case ROOK:
+                attacks = rayAttacks(cell, own | enemy, ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION);
+                break;
+            case BISHOP:
+                attacks = rayAttacks(cell, own | enemy, ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.DIRECTIONS_COUNT);
+                break;
+            default:  // QUEEN
+                attacks = rayAttacks(cell, own | enemy, ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION,
+                        ContinuousMovementsWithOffset.DIRECTIONS_COUNT);
+                break;
+        }
+        return MoveCounts.pack(Long.bitCount(attacks & ~own), Long.bitCount(attacks & enemy));
+    }
+
+    /**
+     * used to get cells attacked along rays: every ray is cut right after its nearest blocker.
+     * @param cell int, index of cell of slider
+     * @param occupancy long, mask of all occupied cells
+     * @param firstDirection int, index of first considered direction (inclusive)
+     * @param lastDirection int, index of last considered direction (exclusive)
+     * @return long, mask of attacked cells including blockers
+     */
+    private static long rayAttacks(int cell, long occupancy, int firstDirection, int lastDirection) {
+        if (EngineMetrics.ENABLED) {  // one ray mask for every direction
+            EngineMetrics.count(EngineMetrics.Counter.RAY_STEPS, lastDirection - firstDirection);
+        }
+        long attacks = 0;
+        for (int i = firstDirection; i < lastDirection; i++) {
+            long ray = RAY_MASKS[i][cell];
+            long blockers = ray & occupancy;
+            if (blockers != 0) {
+                int blocker = INCREASING[i]
+                        ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+                ray ^= RAY_MASKS[i][blocker];  // cells behind the blocker are not reachable
+            }
+            attacks |= ray;
+        }
+        return attacks;
+    }
+}
+
+
+/**
+ * represents storage backend of the board.
+ */
+enum BoardBackend {
+    /**
+     * chosen by size: bitboards for 8x8 boards, line bitsets for large boards and dense array otherwise.
+     */
+    AUTO,
+    /**
+     * flat array of pieces, rays are walked cell by cell.
+     */
+    DENSE,
+    /**
+     * 64-bit masks, used only for 8x8 boards, other sizes fall back to AUTO.
+     */
+    BITBOARD,
+    /**
+     * multi-word bitsets of lines.
+     */
+    BITSET,
+    /**
+     * sorted arrays of coordinates of pieces of lines, suits large sparse boards.
+     */
+    SORTED_LINES,
+    /**
+     * byte per cell in direct buffer outside the heap, rays are walked cell by cell.
+     */
+    OFF_HEAP;
+
+    /**
+     * boards of at least this size use line bitsets in AUTO mode, on smaller boards rays are too short to benefit.
+     */
+    private static final int BITSET_MINIMAL_SIZE = 16;
+
+    /**
+     * creates an empty storage of this backend.
+     * @param boardSize int, size of the board
+     * @return BoardStorage
+     */
+    public BoardStorage createStorage(int boardSize) {
+        switch (this) {
+            case DENSE:
+                return new DenseBoardStorage(boardSize);
+            case BITSET:
+                return new BitsetBoardStorage(boardSize);
+            case SORTED_LINES:
+                return new SortedLinesBoardStorage(boardSize);
+            case OFF_HEAP:
+                return new OffHeapBoardStorage(boardSize);
+            default:  // AUTO & BITBOARD
+                if (boardSize == BitboardStorage.SIZE) {
+                    return new BitboardStorage();
+                }
+                if (boardSize >= BITSET_MINIMAL_SIZE) {
+                    return new BitsetBoardStorage(boardSize);
+                }
+                return new DenseBoardStorage(boardSize);
+        }
+    }
+
+    /**
+     * parses backend from its name in lower case, with dashes instead of underscores.
+     * @param name String, name of backend
+     * @return BoardBackend
+     * @throws IllegalArgumentException if name is unknown
+     */
+    public static BoardBackend parse(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
+
+
+class Board {
+    /**
+     * storage to access chess pieces by their coordinates.
+     */
+    private final BoardStorage positionsToPieces;
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * storage backend of the board.
+     */
+    private final BoardBackend backend;
+
+    /**
+     * shows if white king is already on board.
+     */
+    private boolean hasWhiteKing = false;
+    /**
+     * shows if black king is already on board.
+     */
+    private boolean hasBlackKing = false;
+    /**
+     * keeps counts of all pieces up to date, null until trackCounts is called.
+     */
+    private CountsTracker tracker = null;
+    /**
+     * Zobrist hash of placed pieces, updated on every change of board.
+     */
+    private long hash = 0;
+
+    /**
+     * lower bound for size of the board.
+     */
+    private static final int MINIMAL_SIZE = 3;
+    /**
+     * upper bound for size of the board.
+     */
+    private static final int MAXIMAL_SIZE = 1000;
+
+    /**
+     * creates a Board with specified size, storage is chosen by size.
+     * @param boardSize size of the board
+     * @throws InvalidBoardSizeException if size is too low or too high
+     */
+    Board(int boardSize) throws InvalidBoardSizeException {
+        this(boardSize, BoardBackend.AUTO);
+    }
+
+    /**
+     * creates a Board with specified size and storage backend.
+     * @param boardSize size of the board
+     * @param backend storage backend
+     * @throws InvalidBoardSizeException if size is too low or too high
+     */
+    Board(int boardSize, BoardBackend backend) throws InvalidBoardSizeException {
+        checkSize(boardSize);
+        this.size = boardSize;
+        this.backend = backend;
+        this.positionsToPieces = backend.createStorage(boardSize);
+    }
+
+    /**
+     * used to check size of the board before the board is created.
+     * @param boardSize size of the board
+     * @throws InvalidBoardSizeException if size is too low or too high
+     */
+    public static void checkSize(int boardSize) throws InvalidBoardSizeException {
+        if (boardSize < MINIMAL_SIZE || boardSize > MAXIMAL_SIZE) {
+            throw new InvalidBoardSizeException();
+        }
+    }
+
+    /**
+     * getter for size of the board.
+     * @return int, size of the board
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * getter for storage backend of the board.
+     * @return BoardBackend
+     */
+    public BoardBackend getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * used to remove all pieces and stop tracking counts, so that board can be reused.
+     */
+    public void reset() {
+        this.positionsToPieces.clear();
+        this.hasWhiteKing = false;
+        this.hasBlackKing = false;
+        this.tracker = null;
+        this.hash = 0;
+    }
+
+    /**
+     * getter for Zobrist hash of placed pieces, equal positions of boards of the same size have equal hashes.
+     * @return long, hash
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * used to calculate number of possible moves for chess piece.
+     * @param piece considered chess piece
+     * @return number of possible moves for chess piece
+     */
+    public int getPiecePossibleMoveCount(ChessPiece piece) {
+        return MoveCounts.moves(getPiecePossibleCounts(piece));
+    }
+
+    /**
+     * used to calculate number of possible captures for chess piece.
+     * @param piece considered chess piece
+     * @return number of possible captures for chess piece
+     */
+    public int getPiecePossibleCapturesCount(ChessPiece piece) {
+        return MoveCounts.captures(getPiecePossibleCounts(piece));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for chess piece at once.
+     * if counts are tracked, counts of piece placed on its cell are not recalculated
+     * @param piece considered chess piece
+     * @return number of possible moves and captures packed by MoveCounts
+     */
+    public long getPiecePossibleCounts(ChessPiece piece) {
+        PiecePosition position = piece.getPosition();
+        return getPiecePossibleCounts(piece.getType(), piece.getColor(), position.getX(), position.getY());
+    }
+
+    /**
+     * same as getPiecePossibleCounts for chess piece given by type, color and cell.
+     * @param type PieceType, type of considered piece
+     * @param color PieceColor, color of considered piece
+     * @param x int, X-coordinate of considered piece
+     * @param y int, Y-coordinate of considered piece
+     * @return number of possible moves and captures packed by MoveCounts
+     */
+    public long getPiecePossibleCounts(PieceType type, PieceColor color, int x, int y) {
+        // tracked counts belong to the piece on the cell, other pieces are evaluated as if they were placed
+        if (this.tracker != null && PiecePosition.isValid(x, y, this.size)
+                && this.positionsToPieces.getCode(x, y) == PieceStore.code(type, color)) {
+            return this.tracker.getCounts(x, y);
+        }
+        return this.positionsToPieces.getCounts(type, color, x, y);
+    }
+
+    /**
+     * used to generate possible moves of chess piece into reusable buffer.
+     * @param piece ChessPiece, considered chess piece
+     * @param moves MoveList, destination, moves are appended
+     */
+    public void generateMoves(ChessPiece piece, MoveList moves) {
+        PiecePosition position = piece.getPosition();
+        generateMoves(piece.getType(), piece.getColor(), position.getX(), position.getY(), moves);
+    }
+
+    /**
+     * same as generateMoves for chess piece given by type, color and cell.
+     * @param type PieceType, type of considered piece
+     * @param color PieceColor, color of considered piece
+     * @param x int, X-coordinate of considered piece
+     * @param y int, Y-coordinate of considered piece
+     * @param moves MoveList, destination, moves are appended
+     */
+    public void generateMoves(PieceType type, PieceColor color, int x, int y, MoveList moves) {
+        type.generateMoves(x, y, color, this.positionsToPieces, this.size, moves);
+    }
+
+    /**
+     * used to generate possible moves of all pieces of one color, moves of every piece go one after another.
+     * @param color PieceColor, color of moved pieces
+     * @param moves MoveList, destination, moves are appended
+     */
+    public void generateAllMoves(PieceColor color, MoveList moves) {
+        for (int x = 1; x <= this.size; x++) {
+            int y = 1;
+            if (this.positionsToPieces.getCode(x, y) == PieceStore.EMPTY) {
+                y += this.positionsToPieces.getBlockerDistance(x, y, ContinuousMovementsWithOffset.UP);
+            }
+            // storage jumps over empty cells of the column
+            for (; y <= this.size; y += this.positionsToPieces.getBlockerDistance(x, y,
+                    ContinuousMovementsWithOffset.UP)) {
+                byte code = this.positionsToPieces.getCode(x, y);
+                if (PieceStore.colorOf(code) == color) {
+                    PieceStore.typeOf(code).generateMoves(x, y, color, this.positionsToPieces, this.size, moves);
+                }
+            }
+        }
+    }
+
+    /**
+     * makes generated move: moved piece takes destination, piece there is captured.
+     * kings are not rechecked, so move that captures king is expected to be unmade before pieces are added
+     * @param move long, move packed by MoveList
+     * @return byte, code of captured piece, PieceStore.EMPTY if destination was empty
+     */
+    public byte makeMove(long move) {
+        int fromX = MoveList.fromX(move);
+        int fromY = MoveList.fromY(move);
+        int toX = MoveList.toX(move);
+        int toY = MoveList.toY(move);
+        byte moved = this.positionsToPieces.getCode(fromX, fromY);
+        byte captured = this.positionsToPieces.getCode(toX, toY);
+        // tracker is told about every cell right after it is changed
+        this.positionsToPieces.removePiece(fromX, fromY);
+        if (this.tracker != null) {
+            this.tracker.cellChanged(fromX, fromY, moved);
+        }
+        if (captured != PieceStore.EMPTY) {
+            this.positionsToPieces.removePiece(toX, toY);
+        }
+        this.positionsToPieces.putCode(toX, toY, moved);
+        if (this.tracker != null) {
+            this.tracker.cellChanged(toX, toY, captured);
+        }
+        this.hash ^= Zobrist.key(moved, fromX, fromY) ^ Zobrist.key(moved, toX, toY);
+        if (captured != PieceStore.EMPTY) {
+            this.hash ^= Zobrist.key(captured, toX, toY);
+        }
+        return captured;
+    }
+
+    /**
+     * takes back move made by makeMove.
+     * @param move long, move packed by MoveList
+     * @param captured byte, code returned by makeMove
+     */
+    public void unmakeMove(long move, byte captured) {
+        int fromX = MoveList.fromX(move);
+        int fromY = MoveList.fromY(move);
+        int toX = MoveList.toX(move);
+        int toY = MoveList.toY(move);
+        byte moved = this.positionsToPieces.getCode(toX, toY);
+        this.positionsToPieces.removePiece(toX, toY);
+        if (captured != PieceStore.EMPTY) {
+            this.positionsToPieces.putCode(toX, toY, captured);
+        }
+        if (this.tracker != null) {
+            this.tracker.cellChanged(toX, toY, moved);
+        }
+        this.positionsToPieces.putCode(fromX, fromY, moved);
+        if (this.tracker != null) {
+            this.tracker.cellChanged(fromX, fromY, PieceStore.EMPTY);
+        }
+        this.hash ^= Zobrist.key(moved, toX, toY) ^ Zobrist.key(moved, fromX, fromY);
+        if (captured != PieceStore.EMPTY) {
+            this.hash ^= Zobrist.key(captured, toX, toY);
+        }
+    }
+
+    /**
+     * counts leaf positions of the tree of possible moves, sides move in turn.
+     * moves are the ones counted by getPiecePossibleCounts, board is the same after the call
+     * @param sideToMove PieceColor, color that moves first
+     * @param depth int, number of plies
+     * @return long, number of positions after depth plies
+     */
+    public long perft(PieceColor sideToMove, int depth) {
+        return perft(sideToMove, depth, new MoveList());
+    }
+
+    /**
+     * counts leaf positions, moves of all plies are kept in one buffer as a stack.
+     * @param sideToMove PieceColor, color that moves first
+     * @param depth int, number of plies
+     * @param moves MoveList, buffer, moves of this ply are appended and dropped before return
+     * @return long, number of positions after depth plies
+     */
+    private long perft(PieceColor sideToMove, int depth, MoveList moves) {
+        if (depth == 0) {
+            return 1;
+        }
+        int start = moves.size();
+        generateAllMoves(sideToMove, moves);
+        int end = moves.size();
+        long leaves = 0;
+        if (depth == 1) {  // leaves are counted without making moves
+            leaves = end - start;
+        } else {
+            for (int i = start; i < end; i++) {
+                long move = moves.get(i);
+                byte captured = makeMove(move);
+                leaves += perft(sideToMove.opposite(), depth - 1, moves);
+                unmakeMove(move, captured);
+            }
+        }
+        moves.truncate(start);
+        return leaves;
+    }
+
+    /**
+     * used to evaluate all pieces at once by line sweeps, attack maps of both colors are built on the way.
+     * @param pieces PieceStore, all pieces placed on board
+     * @return AttackMap
+     */
+    public AttackMap sweep(PieceStore pieces) {
+        return new AttackMap(this.positionsToPieces, pieces);
+    }
+
+    /**
+     * used to count only legal moves of all pieces, i.e. moves that do not leave own king attacked.
+     * every side is considered as if it was to move, counts of side without king are not restricted
+     * @param pieces PieceStore, all pieces placed on board
+     * @return int[], legal moves and captures of i-th piece at 2 * i and 2 * i + 1
+     */
+    public int[] countLegalMoves(PieceStore pieces) {
+        AttackMap attacks = sweep(pieces);
+        KingSafety[] kings = new KingSafety[PieceColor.values().length];
+        for (int i = 0; i < pieces.size(); i++) {
+            if (pieces.getType(i) == PieceType.KING) {
+                kings[pieces.getColor(i).ordinal()] = new KingSafety(this.positionsToPieces, attacks,
+                        pieces.getColor(i), pieces.getX(i), pieces.getY(i));
+            }
+        }
+
+        int[] counts = attacks.getCounts();
+        for (int i = 0; i < pieces.size(); i++) {
+            KingSafety king = kings[pieces.getColor(i).ordinal()];
+            if (king == null) {
+                continue;
+            }
+            long legal = king.getLegalCounts(pieces.getType(i), pieces.getX(i), pieces.getY(i),
+                    MoveCounts.pack(counts[2 * i], counts[2 * i + 1]));
+            counts[2 * i] = MoveCounts.moves(legal);
+            counts[2 * i + 1] = MoveCounts.captures(legal);
+        }
+        return counts;
+    }
+
+    /**
+     * used to take immutable snapshot of the board with counts of all pieces calculated,
+     * so that many threads can query it without locking. later changes of this board do not affect snapshot
+     * @return FrozenBoard
+     */
+    public FrozenBoard freeze() {
+        return new FrozenBoard(this.positionsToPieces, this.backend, this.size, this.hash);
+    }
+
+    /**
+     * turns on tracking of counts: counts of all pieces are calculated once
+     * and then only counts of affected pieces are updated after every change of board.
+     */
+    public void trackCounts() {
+        if (this.tracker == null) {
+            this.tracker = new CountsTracker(this.positionsToPieces, this.size);
+            this.tracker.recalculateAll();
+        }
+    }
+
+    /**
+     * used to add chess pieces on board.
+     * @param piece ChessPiece
+     * @throws InvalidPiecePositionException if piece's cell is already occupied
+     * @throws InvalidGivenKingsException if extra kings are given
+     */
+    public void addPiece(ChessPiece piece) throws InvalidPiecePositionException, InvalidGivenKingsException {
+        PiecePosition position = piece.getPosition();
+        addPiece(piece.getType(), piece.getColor(), position.getX(), position.getY());
+    }
+
+    /**
+     * used to add chess piece given by type, color and cell, no object is kept for it.
+     * @param type PieceType, type of added piece
+     * @param color PieceColor, color of added piece
+     * @param x int, X-coordinate of added piece
+     * @param y int, Y-coordinate of added piece
+     * @throws InvalidPiecePositionException if piece's cell is already occupied
+     * @throws InvalidGivenKingsException if extra kings are given
+     */
+    public void addPiece(PieceType type, PieceColor color, int x, int y)
+            throws InvalidPiecePositionException, InvalidGivenKingsException {
+        // checking kings on the board
+        if (type == PieceType.KING) {
+            if (color == PieceColor.WHITE) {
+                if (hasWhiteKing) {  // there is white king already
+                    throw new InvalidGivenKingsException();
+                }
+                hasWhiteKing = true;
+            } else {
+                if (hasBlackKing) {  // there is black king already
+                    throw new InvalidGivenKingsException();
+                }
+                hasBlackKing = true;
+            }
+        }
+
+        if (this.positionsToPieces.getCode(x, y) != PieceStore.EMPTY) {
+            // if cell is already occupied
+            throw new InvalidPiecePositionException();
+        }
+
+        byte code = PieceStore.code(type, color);
+        this.positionsToPieces.putCode(x, y, code);
+        this.hash ^= Zobrist.key(code, x, y);
+        if (this.tracker != null) {
+            this.tracker.cellChanged(x, y, PieceStore.EMPTY);
+        }
+    }
+
+    /**
+     * used to remove chess piece from board.
+     * @param position PiecePosition, cell of removed piece
+     * @return ChessPiece, removed piece
+     * @throws InvalidPiecePositionException if cell is empty
+     */
+    public ChessPiece removePiece(PiecePosition position) throws InvalidPiecePositionException {
+        ChessPiece piece = this.positionsToPieces.getPiece(position.getX(), position.getY());
+        if (piece == null) {
+            throw new InvalidPiecePositionException();
+        }
+        if (piece.getType() == PieceType.KING) {
+            if (piece.getColor() == PieceColor.WHITE) {
+                hasWhiteKing = false;
+            } else {
+                hasBlackKing = false;
+            }
+        }
+
+        byte code = PieceStore.code(piece.getType(), piece.getColor());
+        this.positionsToPieces.removePiece(position.getX(), position.getY());
+        this.hash ^= Zobrist.key(code, position.getX(), position.getY());
+        if (this.tracker != null) {
+            this.tracker.cellChanged(position.getX(), position.getY(), code);
+        }
+        return piece;
+    }
+
+    /**
+     * used to move chess piece to another cell, piece of another color on that cell is captured.
+     * @param from PiecePosition, cell of moved piece
+     * @param to PiecePosition, destination cell
+     * @return ChessPiece, moved piece at its new position
+     * @throws InvalidPiecePositionException if there is no piece to move, destination is outside the board
+     *                                       or occupied by piece of the same color
+     */
+    public ChessPiece movePiece(PiecePosition from, PiecePosition to) throws InvalidPiecePositionException {
+        ChessPiece piece = this.positionsToPieces.getPiece(from.getX(), from.getY());
+        ChessPiece captured = this.positionsToPieces.getPiece(to.getX(), to.getY());
+        if (piece == null || !to.isValid(this.size) || (captured != null && captured.getColor() == piece.getColor())) {
+            throw new InvalidPiecePositionException();
+        }
+        if (captured != null) {
+            removePiece(to);
+        }
+        removePiece(from);
+
+        ChessPiece moved = piece.getType().create(to, piece.getColor());
+        try {
+            addPiece(moved);
+        } catch (InvalidGivenKingsException e) {  // king was removed from its old cell right before
+            throw new IllegalStateException(e);
+        }
+        return moved;
+    }
+
+    /**
+     * used to get chess piece by its position.
+     * board keeps only codes of pieces, so new object is returned for every call
+     * @param position PiecePosition
+     * @return ChessPiece
+     */
+    public ChessPiece getPiece(PiecePosition position) {
+        return this.positionsToPieces.getPiece(position.getX(), position.getY());
+    }
+
+    /**
+     * used to check if all kings are given.
+     * @throws InvalidGivenKingsException if not all kings are given
+     */
+    public void checkKings() throws InvalidGivenKingsException {
+        if (!(hasWhiteKing && hasBlackKing)) {
+            throw new InvalidGivenKingsException();
+        }
+    }
+}
+
+
+/**
+ * immutable snapshot of board taken by Board.freeze.
+ * pieces are copied into storage of the same backend as the board, and counts of all pieces are calculated
+ * when snapshot is created. all fields are final and are not changed later, and storages do not write anything
+ * when they are read, so snapshot can be published to other threads without synchronization
+ * and queried by any number of them
+ */
+final class FrozenBoard {
+    /**
+     * copy of pieces, used to find pieces on cells and to evaluate pieces that are not on the board.
+     */
+    private final BoardStorage positions;
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * Zobrist hash of pieces.
+     */
+    private final long hash;
+    /**
+     * number of pieces on the board.
+     */
+    private final int piecesCount;
+    /**
+     * counts packed by MoveCounts for every cell, keyed by (x - 1) * size + (y - 1), 0 for empty cell.
+     */
+    private final long[] counts;
+
+    /**
+     * copies pieces of board and calculates their counts.
+     * @param storage BoardStorage, storage of the board, it is only read
+     * @param backend BoardBackend, backend of the board, copy is made in storage of this backend
+     * @param boardSize int, size of the board
+     * @param boardHash long, Zobrist hash of the board
+     */
+    FrozenBoard(BoardStorage storage, BoardBackend backend, int boardSize, long boardHash) {
+        this.size = boardSize;
+        this.hash = boardHash;
+        this.positions = backend.createStorage(boardSize);
+        this.counts = new long[boardSize * boardSize];
+
+        int count = 0;
+        for (int x = 1; x <= boardSize; x++) {
+            int y = 1;
+            if (storage.getCode(x, y) == PieceStore.EMPTY) {
+                y += storage.getBlockerDistance(x, y, ContinuousMovementsWithOffset.UP);
+            }
+            // storage jumps over empty cells of the column
+            for (; y <= boardSize; y += storage.getBlockerDistance(x, y, ContinuousMovementsWithOffset.UP)) {
+                this.positions.putCode(x, y, storage.getCode(x, y));
+                count++;
+            }
+        }
+        this.piecesCount = count;
+
+        // counts are calculated when all pieces are copied
+        for (int x = 1; x <= boardSize; x++) {
+            int y = 1;
+            if (this.positions.getCode(x, y) == PieceStore.EMPTY) {
+                y += this.positions.getBlockerDistance(x, y, ContinuousMovementsWithOffset.UP);
+            }
+            for (; y <= boardSize; y += this.positions.getBlockerDistance(x, y, ContinuousMovementsWithOffset.UP)) {
+                byte code = this.positions.getCode(x, y);
+                this.counts[(x - 1) * boardSize + (y - 1)] = this.positions.getCounts(PieceStore.typeOf(code),
+                        PieceStore.colorOf(code), x, y);
+            }
+        }
+    }
+
+    /**
+     * getter for size of the board.
+     * @return int, size of the board
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * getter for Zobrist hash of pieces, equal to hash of the board when snapshot was taken.
+     * @return long, hash
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * used to get number of pieces on the board.
+     * @return int, number of pieces
+     */
+    public int getPiecesCount() {
+        return this.piecesCount;
+    }
+
+    /**
+     * used to get chess piece by its position, new object is returned for every call.
+     * @param position PiecePosition
+     * @return ChessPiece, null if cell is empty
+     */
+    public ChessPiece getPiece(PiecePosition position) {
+        return this.positions.getPiece(position.getX(), position.getY());
+    }
+
+    /**
+     * used to calculate number of possible moves for chess piece.
+     * @param piece considered chess piece
+     * @return number of possible moves for chess piece
+     */
+    public int getPiecePossibleMoveCount(ChessPiece piece) {
+        return MoveCounts.moves(getPiecePossibleCounts(piece));
+    }
+
+    /**
+     * used to calculate number of possible captures for chess piece.
+     * @param piece considered chess piece
+     * @return number of possible captures for chess piece
+     */
+    public int getPiecePossibleCapturesCount(ChessPiece piece) {
+        return MoveCounts.captures(getPiecePossibleCounts(piece));
+    }
+
+    /**
+     * used to calculate number of possible moves and captures for chess piece at once.
+     * @param piece considered chess piece
+     * @return number of possible moves and captures packed by MoveCounts
+     */
+    public long getPiecePossibleCounts(ChessPiece piece) {
+        PiecePosition position = piece.getPosition();
+        return getPiecePossibleCounts(piece.getType(), piece.getColor(), position.getX(), position.getY());
+    }
+
+    /**
+     * same as getPiecePossibleCounts for chess piece given by type, color and cell.
+     * counts of pieces on the board are precalculated, other pieces are evaluated as if they were placed
+     * @param type PieceType, type of considered piece
+     * @param color PieceColor, color of considered piece
+     * @param x int, X-coordinate of considered piece
+     * @param y int, Y-coordinate of considered piece
+     * @return number of possible moves and captures packed by MoveCounts
+     */
+    public long getPiecePossibleCounts(PieceType type, PieceColor color, int x, int y) {
+        if (PiecePosition.isValid(x, y, this.size) && this.positions.getCode(x, y) == PieceStore.code(type, color)) {
+            return this.counts[(x - 1) * this.size + (y - 1)];
+        }
+        return this.positions.getCounts(type, color, x, y);
+    }
+}
+
+
+/**
+ * keeps move and capture counts of all pieces on board up to date.
+ * after change of a cell only pieces that can reach it are updated: the piece on the cell,
+ * sliders whose rays end at the cell, leapers and pawns next to it. rays are walked from the changed cell only,
+ * sliders take the difference of the one ray through the cell, so none of their rays is walked again
+ */
+class CountsTracker {
+    /**
+     * storage of tracked board.
+     */
+    private final BoardStorage positions;
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * counts packed by MoveCounts for every cell, keyed by (x - 1) * size + (y - 1).
+     */
+    private final long[] counts;
+    /**
+     * distance from changed cell to the nearest blocker (or beyond the edge) in every direction.
+     */
+    private final int[] distances = new int[ContinuousMovementsWithOffset.DIRECTIONS_COUNT];
+    /**
+     * codes of these blockers, PieceStore.EMPTY if ray reached the edge.
+     */
+    private final byte[] blockers = new byte[ContinuousMovementsWithOffset.DIRECTIONS_COUNT];
+
+    /**
+     * creates a tracker for board, counts are not calculated yet.
+     * @param storage BoardStorage, storage of tracked board
+     * @param boardSize int, size of the board
+     */
+    CountsTracker(BoardStorage storage, int boardSize) {
+        this.positions = storage;
+        this.size = boardSize;
+        this.counts = new long[boardSize * boardSize];
+    }
+
+    /**
+     * getter for counts of piece on cell.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return long, counts packed by MoveCounts, 0 for empty cell
+     */
+    public long getCounts(int x, int y) {
+        return this.counts[(x - 1) * this.size + (y - 1)];
+    }
+
+    /**
+     * calculates counts of all pieces on board.
+     */
+    public void recalculateAll() {
+        for (int x = 1; x <= this.size; x++) {
+            for (int y = 1; y <= this.size; y++) {
+                recalculate(x, y);
+            }
+        }
+    }
+
+    /**
+     * updates counts after content of single cell was changed, e.g. piece was placed on it or removed from it.
+     * every changed cell has to be passed right after its change, before other cells are changed
+     * @param x int, X-coordinate of changed cell
+     * @param y int, Y-coordinate of changed cell
+     * @param previous byte, code of cell before the change
+     */
+    public void cellChanged(int x, int y, byte previous) {
+        byte current = this.positions.getCode(x, y);
+        for (int i = 0; i < ContinuousMovementsWithOffset.DIRECTIONS_COUNT; i++) {
+            this.distances[i] = this.positions.getBlockerDistance(x, y, i);
+            this.blockers[i] = this.positions.getCode(x + MoveOffsets.DIRECTIONS.getX(i) * this.distances[i],
+                    y + MoveOffsets.DIRECTIONS.getY(i) * this.distances[i]);
+        }
+
+        // piece on the cell: sliders take their rays from the walks above
+        int cell = (x - 1) * this.size + (y - 1);
+        if (current == PieceStore.EMPTY) {
+            this.counts[cell] = 0;
+        } else if (isSlider(PieceStore.typeOf(current))) {
+            this.counts[cell] = sliderCounts(PieceStore.typeOf(current), PieceStore.colorOf(current));
+        } else {
+            recalculate(x, y);
+        }
+
+        // sliders: first piece in every direction, if it moves along the opposite direction
+        for (int i = 0; i < ContinuousMovementsWithOffset.DIRECTIONS_COUNT; i++) {
+            byte code = this.blockers[i];
+            if (code == PieceStore.EMPTY) {
+                continue;
+            }
+            PieceType type = PieceStore.typeOf(code);
+            boolean orthogonal = i < ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION;
+            if (type == PieceType.QUEEN || type == (orthogonal ? PieceType.ROOK : PieceType.BISHOP)) {
+                // only the ray of slider that passes the cell is changed, behind the cell it is the same
+                int beyond = MoveOffsets.opposite(i);
+                PieceColor color = PieceStore.colorOf(code);
+                long before = rayCounts(color, this.distances[i], previous, this.distances[beyond],
+                        this.blockers[beyond]);
+                long after = rayCounts(color, this.distances[i], current, this.distances[beyond],
+                        this.blockers[beyond]);
+                int slider = (x + MoveOffsets.DIRECTIONS.getX(i) * this.distances[i] - 1) * this.size
+                        + (y + MoveOffsets.DIRECTIONS.getY(i) * this.distances[i] - 1);
+                long tracked = this.counts[slider];
+                this.counts[slider] = MoveCounts.pack(
+                        MoveCounts.moves(tracked) - MoveCounts.moves(before) + MoveCounts.moves(after),
+                        MoveCounts.captures(tracked) - MoveCounts.captures(before) + MoveCounts.captures(after));
+            }
+        }
+
+        // leapers
+        recalculateAround(x, y, MoveOffsets.KNIGHT, PieceType.KNIGHT);
+        recalculateAround(x, y, MoveOffsets.KING, PieceType.KING);
+
+        // pawns: white ones move up to the cell, black ones move down to it
+        for (int offsetX = -1; offsetX <= 1; offsetX++) {
+            recalculatePawn(x + offsetX, y - 1, PieceColor.WHITE);
+            recalculatePawn(x + offsetX, y + 1, PieceColor.BLACK);
+        }
+    }
+
+    /**
+     * used to check if piece of specified type moves along rays.
+     * @param type PieceType, type of piece
+     * @return boolean, true for queen, rook and bishop
+     */
+    private static boolean isSlider(PieceType type) {
+        return type == PieceType.QUEEN || type == PieceType.ROOK || type == PieceType.BISHOP;
+    }
+
+    /**
+     * counts of slider placed on changed cell, taken from rays walked from the cell.
+     * @param type PieceType, type of slider
+     * @param color PieceColor, color of slider
+     * @return long, counts packed by MoveCounts
+     */
+    private long sliderCounts(PieceType type, PieceColor color) {
+        int first = type == PieceType.BISHOP ? ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION
+                : ContinuousMovementsWithOffset.FIRST_ORTHOGONAL_DIRECTION;
+        int last = type == PieceType.ROOK ? ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION
+                : ContinuousMovementsWithOffset.DIRECTIONS_COUNT;
+        int moves = 0;
+        int captures = 0;
+        for (int i = first; i < last; i++) {
+            long ray = rayCounts(color, this.distances[i], PieceStore.EMPTY, 0, this.blockers[i]);
+            moves += MoveCounts.moves(ray);
+            captures += MoveCounts.captures(ray);
+        }
+        return MoveCounts.pack(moves, captures);
+    }
+
+    /**
+     * counts of one ray of slider that passes a cell, the same way as getContinuousCounts takes them.
+     * @param color PieceColor, color of slider
+     * @param distance int, distance from slider to the cell
+     * @param code byte, code of the cell
+     * @param beyond int, distance from the cell to the nearest blocker (or beyond the edge) behind it
+     * @param blocker byte, code of that blocker, PieceStore.EMPTY if ray reached the edge
+     * @return long, counts packed by MoveCounts
+     */
+    private static long rayCounts(PieceColor color, int distance, byte code, int beyond, byte blocker) {
+        int length = distance;
+        byte end = code;
+        if (end == PieceStore.EMPTY) {  // ray is not stopped by the cell
+            length += beyond;
+            end = blocker;
+        }
+        int captures = end != PieceStore.EMPTY && PieceStore.colorOf(end) != color ? 1 : 0;
+        return MoveCounts.pack(length - 1 + captures, captures);
+    }
+
+    /**
+     * recalculates counts of pieces of specified type placed at offsets from the cell.
+     * leaper offsets are symmetric, so these are exactly the pieces that reach the cell
+     * @param x int, X-coordinate of changed cell
+     * @param y int, Y-coordinate of changed cell
+     * @param offsets MoveOffsets, offsets of all moves
+     * @param type PieceType, type of recalculated pieces
+     */
+    private void recalculateAround(int x, int y, MoveOffsets offsets, PieceType type) {
+        for (int i = 0; i < offsets.size(); i++) {
+            byte code = this.positions.getCode(x + offsets.getX(i), y + offsets.getY(i));
+            if (code != PieceStore.EMPTY && PieceStore.typeOf(code) == type) {
+                recalculate(x + offsets.getX(i), y + offsets.getY(i));
+            }
+        }
+    }
+
+    /**
+     * recalculates counts of pawn of specified color on the cell, if there is one.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param color PieceColor, color of recalculated pawn
+     */
+    private void recalculatePawn(int x, int y, PieceColor color) {
+        if (this.positions.getCode(x, y) == PieceStore.code(PieceType.PAWN, color)) {
+            recalculate(x, y);
+        }
+    }
+
+    /**
+     * recalculates counts of piece on the cell.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     */
+    private void recalculate(int x, int y) {
+        byte code = this.positions.getCode(x, y);
+        this.counts[(x - 1) * this.size + (y - 1)] = code == PieceStore.EMPTY
+                ? 0 : this.positions.getCounts(PieceStore.typeOf(code), PieceStore.colorOf(code), x, y);
+    }
+}
+
+
+/**
+ * evaluates all pieces of a board in one sweep and keeps cells attacked by white and by black pieces.
+ * pieces are visited once in order of packed indices, and the last piece seen on every row, column and diagonal
+ * is remembered, so the nearest piece in every direction is found once and shared by both neighbours
+ * instead of walking rays of every slider. cells between neighbours are marked as attacked at most twice,
+ * so the whole sweep is O(size * size + pieces)
+ */
+final class AttackMap {
+    /**
+     * direction along rows in which X-coordinate decreases, opposite one is RIGHT.
+     */
+    private static final int LEFT = 0;
+    /**
+     * direction along rows in which X-coordinate increases.
+     */
+    private static final int RIGHT = 1;
+    /**
+     * direction along columns in which Y-coordinate increases.
+     */
+    private static final int UP = 2;
+    /**
+     * direction along columns in which Y-coordinate decreases.
+     */
+    private static final int DOWN = 3;
+    /**
+     * direction along anti-diagonals in which X-coordinate decreases.
+     */
+    private static final int UP_LEFT = 4;
+    /**
+     * direction along diagonals in which X-coordinate increases.
+     */
+    private static final int UP_RIGHT = 5;
+    /**
+     * direction along diagonals in which X-coordinate decreases.
+     */
+    private static final int DOWN_LEFT = 6;
+    /**
+     * direction along anti-diagonals in which X-coordinate increases.
+     */
+    private static final int DOWN_RIGHT = 7;
+
+    /**
+     * storage with all pieces placed.
+     */
+    private final BoardStorage positions;
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * tables of the board.
+     */
+    private final BoardGeometry geometry;
+    /**
+     * moves and captures of i-th piece are stored at 2 * i and 2 * i + 1.
+     */
+    private final int[] counts;
+    /**
+     * bitsets of attacked cells keyed by (x - 1) * size + (y - 1), indexed by ordinal of attacking color.
+     */
+    private final long[][] attacked;
+    /**
+     * moves and captures of piece on every cell at 2 * index and 2 * index + 1 during the sweep, null after it.
+     */
+    private int[] cellCounts;
+
+    /**
+     * sweeps the board with specified pieces.
+     * @param storage BoardStorage, storage with all pieces placed
+     * @param pieces PieceStore, all pieces placed on board
+     */
+    AttackMap(BoardStorage storage, PieceStore pieces) {
+        this.positions = storage;
+        this.size = storage.getSize();
+        this.geometry = storage.getGeometry();
+        int cells = this.size * this.size;
+        this.attacked = new long[][] {new long[(cells >>> 6) + 1], new long[(cells >>> 6) + 1]};
+        this.cellCounts = new int[2 * cells];
+
+        sweep();
+
+        this.counts = new int[2 * pieces.size()];
+        for (int i = 0; i < pieces.size(); i++) {
+            int index = index(pieces.getX(i), pieces.getY(i));
+            this.counts[2 * i] = this.cellCounts[2 * index];
+            this.counts[2 * i + 1] = this.cellCounts[2 * index + 1];
+        }
+        this.cellCounts = null;
+    }
+
+    /**
+     * visits all cells column by column, pairs of neighbours on every line are handled once.
+     */
+    private void sweep() {
+        // X-coordinate of the last piece on every row, anti-diagonal x + y and diagonal x - y + size, 0 for none
+        int[] lastInRow = new int[this.size + 1];
+        int[] lastInAntiDiagonal = new int[2 * this.size + 1];
+        int[] lastInDiagonal = new int[2 * this.size + 1];
+        // codes of these pieces, so that they are not looked up again
+        byte[] rowCodes = new byte[this.size + 1];
+        byte[] antiDiagonalCodes = new byte[2 * this.size + 1];
+        byte[] diagonalCodes = new byte[2 * this.size + 1];
+
+        for (int x = 1; x <= this.size; x++) {
+            int lastInColumn = 0;  // Y-coordinate of the last piece in this column
+            byte columnCode = PieceStore.EMPTY;
+            // storage jumps over empty cells of the column, e.g. by words of bitset
+            int y = 1;
+            if (this.positions.getCode(x, y) == PieceStore.EMPTY) {
+                y += this.positions.getBlockerDistance(x, y, UP);
+            }
+            for (; y <= this.size; y += this.positions.getBlockerDistance(x, y, UP)) {
+                byte code = this.positions.getCode(x, y);
+                neighbours(x, y, code, DOWN, lastInColumn == 0 ? 0 : y - lastInColumn, columnCode);
+                lastInColumn = y;
+                columnCode = code;
+                neighbours(x, y, code, LEFT, lastInRow[y] == 0 ? 0 : x - lastInRow[y], rowCodes[y]);
+                lastInRow[y] = x;
+                rowCodes[y] = code;
+                int anti = x + y;
+                neighbours(x, y, code, UP_LEFT, lastInAntiDiagonal[anti] == 0 ? 0 : x - lastInAntiDiagonal[anti],
+                        antiDiagonalCodes[anti]);
+                lastInAntiDiagonal[anti] = x;
+                antiDiagonalCodes[anti] = code;
+                int diagonal = x - y + this.size;
+                neighbours(x, y, code, DOWN_LEFT, lastInDiagonal[diagonal] == 0 ? 0 : x - lastInDiagonal[diagonal],
+                        diagonalCodes[diagonal]);
+                lastInDiagonal[diagonal] = x;
+                diagonalCodes[diagonal] = code;
+
+                PieceType type = PieceStore.typeOf(code);
+                if (type == PieceType.KNIGHT || type == PieceType.KING || type == PieceType.PAWN) {
+                    leap(x, y, type, PieceStore.colorOf(code));
+                }
+            }
+            if (lastInColumn != 0) {
+                toEdge(x, lastInColumn, UP);
+            }
+        }
+
+        // the last pieces of lines look forward up to the edge
+        for (int y = 1; y <= this.size; y++) {
+            if (lastInRow[y] != 0) {
+                toEdge(lastInRow[y], y, RIGHT);
+            }
+        }
+        for (int line = 0; line <= 2 * this.size; line++) {
+            if (lastInAntiDiagonal[line] != 0) {
+                toEdge(lastInAntiDiagonal[line], line - lastInAntiDiagonal[line], DOWN_RIGHT);
+            }
+            if (lastInDiagonal[line] != 0) {
+                toEdge(lastInDiagonal[line], lastInDiagonal[line] - line + this.size, UP_RIGHT);
+            }
+        }
+    }
+
+    /**
+     * handles piece and the previous piece on its line, which block each other.
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param code byte, code of piece
+     * @param backward int, direction from piece to the previous one
+     * @param distance int, number of steps to the previous piece, 0 if piece is the first on its line
+     * @param previousCode byte, code of the previous piece
+     */
+    private void neighbours(int x, int y, byte code, int backward, int distance, byte previousCode) {
+        int index = index(x, y);
+        if (distance == 0) {
+            ray(index, code, backward, this.geometry.getEdgeDistance(x, y, backward), PieceStore.EMPTY);
+        } else {
+            ray(index, code, backward, distance, previousCode);
+            int previous = index + this.geometry.getStride(backward) * distance;
+            ray(previous, previousCode, MoveOffsets.opposite(backward), distance, code);
+        }
+    }
+
+    /**
+     * handles the last piece of its line, whose ray reaches the edge.
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param forward int, direction to the edge
+     */
+    private void toEdge(int x, int y, int forward) {
+        ray(index(x, y), this.positions.getCode(x, y), forward,
+                this.geometry.getEdgeDistance(x, y, forward), PieceStore.EMPTY);
+    }
+
+    /**
+     * adds ray of piece to its counts and to attacked cells, if piece slides in this direction.
+     * @param index int, packed index of piece
+     * @param code byte, code of piece
+     * @param direction int, index of direction in MoveOffsets.DIRECTIONS
+     * @param distance int, number of steps to the blocker or to the first cell outside the board
+     * @param blocker byte, code of blocking piece, PieceStore.EMPTY if ray reaches the edge
+     */
+    private void ray(int index, byte code, int direction, int distance, byte blocker) {
+        PieceType type = PieceStore.typeOf(code);
+        boolean orthogonal = direction < ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION;
+        if (type != PieceType.QUEEN && type != (orthogonal ? PieceType.ROOK : PieceType.BISHOP)) {
+            return;
+        }
+        PieceColor color = PieceStore.colorOf(code);
+        long[] cells = this.attacked[color.ordinal()];
+        int stride = this.geometry.getStride(direction);
+        int reach = blocker == PieceStore.EMPTY ? distance - 1 : distance;  // blocker is attacked whatever its color
+        int cell = index;
+        for (int step = 0; step < reach; step++) {
+            cell += stride;
+            cells[cell >>> 6] |= 1L << cell;
+        }
+
+        this.cellCounts[2 * index] += distance - 1;
+        if (blocker != PieceStore.EMPTY && PieceStore.colorOf(blocker) != color) {
+            this.cellCounts[2 * index]++;
+            this.cellCounts[2 * index + 1]++;
+        }
+    }
+
+    /**
+     * evaluates Knight, King or Pawn and marks cells it attacks.
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param type PieceType, type of piece
+     * @param color PieceColor, color of piece
+     */
+    private void leap(int x, int y, PieceType type, PieceColor color) {
+        int index = index(x, y);
+        long pieceCounts = this.positions.getCounts(type, color, x, y);
+        this.cellCounts[2 * index] = MoveCounts.moves(pieceCounts);
+        this.cellCounts[2 * index + 1] = MoveCounts.captures(pieceCounts);
+
+        long[] cells = this.attacked[color.ordinal()];
+        if (type == PieceType.PAWN) {
+            int forwardY = color == PieceColor.WHITE ? y + 1 : y - 1;
+            mark(cells, x - 1, forwardY);
+            mark(cells, x + 1, forwardY);
+            return;
+        }
+        boolean knight = type == PieceType.KNIGHT;
+        MoveOffsets offsets = knight ? MoveOffsets.KNIGHT : MoveOffsets.KING;
+        int targets = knight ? this.geometry.getKnightTargets(x, y) : this.geometry.getKingTargets(x, y);
+        for (int rest = targets; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            mark(cells, x + offsets.getX(i), y + offsets.getY(i));
+        }
+    }
+
+    /**
+     * marks cell as attacked, cells outside the board are skipped.
+     * @param cells long[], bitset of attacked cells
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     */
+    private void mark(long[] cells, int x, int y) {
+        if (PiecePosition.isValid(x, y, this.size)) {
+            int index = index(x, y);
+            cells[index >>> 6] |= 1L << index;
+        }
+    }
+
+    /**
+     * used to get packed index of cell.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return int, (x - 1) * size + (y - 1)
+     */
+    private int index(int x, int y) {
+        return (x - 1) * this.size + (y - 1);
+    }
+
+    /**
+     * getter for counts of all pieces.
+     * @return int[], moves and captures of i-th piece at 2 * i and 2 * i + 1, array is not copied
+     */
+    public int[] getCounts() {
+        return this.counts;
+    }
+
+    /**
+     * getter for number of possible moves of piece.
+     * @param index int, index of piece in PieceStore
+     * @return int, number of possible moves
+     */
+    public int getMovesCount(int index) {
+        return this.counts[2 * index];
+    }
+
+    /**
+     * getter for number of possible captures of piece.
+     * @param index int, index of piece in PieceStore
+     * @return int, number of possible captures
+     */
+    public int getCapturesCount(int index) {
+        return this.counts[2 * index + 1];
+    }
+
+    /**
+     * shows if cell is attacked by pieces of specified color.
+     * cells occupied by pieces of the same color count as attacked, i.e. defended
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param color PieceColor, color of attacking pieces
+     * @return boolean, true if any piece of this color can capture on the cell
+     */
+    public boolean isAttacked(int x, int y, PieceColor color) {
+        int index = index(x, y);
+        return (this.attacked[color.ordinal()][index >>> 6] & (1L << index)) != 0;
+    }
+}
+
+
+/**
+ * restricts counts of pieces of one color to legal moves, i.e. moves that do not leave own king attacked.
+ * instead of making every move and testing the king, checks and pins are found once by looking along
+ * the eight directions and the knight and pawn offsets from the king: pinned pieces keep only moves along
+ * the pin line, in single check only moves to the checker or between it and the king remain, which are found
+ * by looking back from these cells, and in double check only the king moves. the king avoids cells attacked
+ * by AttackMap and cells behind it on rays of checking sliders
+ */
+final class KingSafety {
+    /**
+     * storage with all pieces placed.
+     */
+    private final BoardStorage positions;
+    /**
+     * tables of the board.
+     */
+    private final BoardGeometry geometry;
+    /**
+     * color of the king.
+     */
+    private final PieceColor color;
+    /**
+     * number of enemy pieces attacking the king.
+     */
+    private int checkers = 0;
+    /**
+     * packed index of own piece pinned along every direction from the king, -1 for none.
+     */
+    private final int[] pinned = new int[ContinuousMovementsWithOffset.DIRECTIONS_COUNT];
+    /**
+     * counts of the king packed by MoveCounts.
+     */
+    private final long kingCounts;
+    /**
+     * counts packed by MoveCounts of pieces that can parry single check, keyed by packed index.
+     */
+    private final Map<Integer, Long> evasions = new HashMap<>();
+
+    /**
+     * analyses checks and pins of the king.
+     * @param storage BoardStorage, storage with all pieces placed
+     * @param attacks AttackMap, cells attacked by pieces of both colors
+     * @param kingColor PieceColor, color of the king
+     * @param kingX int, X-coordinate of the king
+     * @param kingY int, Y-coordinate of the king
+     */
+    KingSafety(BoardStorage storage, AttackMap attacks, PieceColor kingColor, int kingX, int kingY) {
+        this.positions = storage;
+        this.geometry = storage.getGeometry();
+        this.color = kingColor;
+        Arrays.fill(this.pinned, -1);
+
+        int checkDirection = -1;  // direction to the only checking slider, -1 if it is not a slider
+        int checkDistance = 0;
+        int checkerX = 0;
+        int checkerY = 0;
+        // packed indices of cells behind the king on rays of checking sliders by direction, -1 for none
+        int[] behind = new int[ContinuousMovementsWithOffset.DIRECTIONS_COUNT];
+        Arrays.fill(behind, -1);
+
+        for (int i = 0; i < ContinuousMovementsWithOffset.DIRECTIONS_COUNT; i++) {
+            int offsetX = MoveOffsets.DIRECTIONS.getX(i);
+            int offsetY = MoveOffsets.DIRECTIONS.getY(i);
+            int distance = storage.getBlockerDistance(kingX, kingY, i);
+            int x = kingX + offsetX * distance;
+            int y = kingY + offsetY * distance;
+            byte code = storage.getCode(x, y);  // empty if ray reached the edge
+            if (code == PieceStore.EMPTY) {
+                continue;
+            }
+            if (PieceStore.colorOf(code) != kingColor) {
+                if (slides(code, i)) {
+                    this.checkers++;
+                    checkDirection = i;
+                    checkDistance = distance;
+                    checkerX = x;
+                    checkerY = y;
+                    if (PiecePosition.isValid(kingX - offsetX, kingY - offsetY, this.geometry.getSize())) {
+                        behind[i] = index(kingX - offsetX, kingY - offsetY);
+                    }
+                }
+                continue;
+            }
+            // own piece is pinned if the next piece behind it is enemy slider along this line
+            int next = storage.getBlockerDistance(x, y, i);
+            byte pinner = storage.getCode(x + offsetX * next, y + offsetY * next);
+            if (pinner != PieceStore.EMPTY && PieceStore.colorOf(pinner) != kingColor && slides(pinner, i)) {
+                this.pinned[i] = index(x, y);
+            }
+        }
+
+        // leapers and pawns, offsets are symmetric, so they attack the king from the same offsets
+        int knights = this.geometry.getKnightTargets(kingX, kingY);
+        for (int rest = knights; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            int x = kingX + MoveOffsets.KNIGHT.getX(i);
+            int y = kingY + MoveOffsets.KNIGHT.getY(i);
+            if (storage.getCode(x, y) == PieceStore.code(PieceType.KNIGHT, kingColor.opposite())) {
+                this.checkers++;
+                checkDirection = -1;
+                checkerX = x;
+                checkerY = y;
+            }
+        }
+        int kings = this.geometry.getKingTargets(kingX, kingY);
+        for (int rest = kings; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            int x = kingX + MoveOffsets.KING.getX(i);
+            int y = kingY + MoveOffsets.KING.getY(i);
+            byte code = storage.getCode(x, y);
+            // enemy pawns attack forward of their color, enemy king attacks every adjacent cell
+            boolean pawn = code == PieceStore.code(PieceType.PAWN, kingColor.opposite())
+                    && y == kingY - forward(kingColor.opposite()) && x != kingX;
+            if (pawn || code == PieceStore.code(PieceType.KING, kingColor.opposite())) {
+                this.checkers++;
+                checkDirection = -1;
+                checkerX = x;
+                checkerY = y;
+            }
+        }
+
+        this.kingCounts = countKingMoves(attacks, kingX, kingY, behind);
+        if (this.checkers == 1) {
+            if (checkDirection < 0) {
+                parry(checkerX, checkerY, true);
+            } else {
+                for (int step = 1; step <= checkDistance; step++) {  // the checker or any cell between it and the king
+                    parry(kingX + MoveOffsets.DIRECTIONS.getX(checkDirection) * step,
+                            kingY + MoveOffsets.DIRECTIONS.getY(checkDirection) * step,
+                            step == checkDistance);
+                }
+            }
+        }
+    }
+
+    /**
+     * shows if piece slides along direction.
+     * @param code byte, code of piece
+     * @param direction int, index of direction in MoveOffsets.DIRECTIONS
+     * @return boolean, true for Queen, for Rook along orthogonal and for Bishop along diagonal directions
+     */
+    private static boolean slides(byte code, int direction) {
+        PieceType type = PieceStore.typeOf(code);
+        boolean orthogonal = direction < ContinuousMovementsWithOffset.FIRST_DIAGONAL_DIRECTION;
+        return type == PieceType.QUEEN || type == (orthogonal ? PieceType.ROOK : PieceType.BISHOP);
+    }
+
+    /**
+     * used to get direction in which pawns of color move.
+     * @param pawnColor PieceColor, color of pawn
+     * @return int, +1 for white, -1 for black
+     */
+    private static int forward(PieceColor pawnColor) {
+        return pawnColor == PieceColor.WHITE ? 1 : -1;
+    }
+
+    /**
+     * used to get packed index of cell.
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @return int, (x - 1) * size + (y - 1)
+     */
+    private int index(int x, int y) {
+        return (x - 1) * this.geometry.getSize() + (y - 1);
+    }
+
+    /**
+     * counts moves of the king to cells that are not attacked.
+     * @param attacks AttackMap, cells attacked by pieces of both colors
+     * @param kingX int, X-coordinate of the king
+     * @param kingY int, Y-coordinate of the king
+     * @param behind int[], packed indices of cells behind the king on rays of checking sliders
+     * @return long, counts packed by MoveCounts
+     */
+    private long countKingMoves(AttackMap attacks, int kingX, int kingY, int[] behind) {
+        int moves = 0;
+        int captures = 0;
+        int targets = this.geometry.getKingTargets(kingX, kingY);
+        for (int rest = targets; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            int x = kingX + MoveOffsets.KING.getX(i);
+            int y = kingY + MoveOffsets.KING.getY(i);
+            PieceColor target = this.positions.getColor(x, y);
+            if (target == this.color || attacks.isAttacked(x, y, this.color.opposite())
+                    || isBehind(behind, index(x, y))) {
+                continue;
+            }
+            moves++;
+            if (target != null) {
+                captures++;
+            }
+        }
+        return MoveCounts.pack(moves, captures);
+    }
+
+    /**
+     * shows if cell lies behind the king on ray of checking slider, so the king can not retreat there.
+     * @param behind int[], packed indices of such cells by direction, -1 for none
+     * @param index int, packed index of cell
+     * @return boolean, true if cell is one of them
+     */
+    private static boolean isBehind(int[] behind, int index) {
+        for (int cell: behind) {
+            if (cell == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * finds own pieces that can move to the cell and parry single check.
+     * pinned pieces can not parry check, as they would leave the pin line
+     * @param x int, X-coordinate of cell
+     * @param y int, Y-coordinate of cell
+     * @param capture boolean, true if the cell is occupied by the checker
+     */
+    private void parry(int x, int y, boolean capture) {
+        for (int i = 0; i < ContinuousMovementsWithOffset.DIRECTIONS_COUNT; i++) {
+            int distance = this.positions.getBlockerDistance(x, y, i);
+            int pieceX = x + MoveOffsets.DIRECTIONS.getX(i) * distance;
+            int pieceY = y + MoveOffsets.DIRECTIONS.getY(i) * distance;
+            byte code = this.positions.getCode(pieceX, pieceY);
+            if (code != PieceStore.EMPTY && PieceStore.colorOf(code) == this.color && slides(code, i)) {
+                addEvasion(pieceX, pieceY, capture);
+            }
+        }
+        int knights = this.geometry.getKnightTargets(x, y);
+        for (int rest = knights; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            int pieceX = x + MoveOffsets.KNIGHT.getX(i);
+            int pieceY = y + MoveOffsets.KNIGHT.getY(i);
+            if (this.positions.getCode(pieceX, pieceY) == PieceStore.code(PieceType.KNIGHT, this.color)) {
+                addEvasion(pieceX, pieceY, capture);
+            }
+        }
+        // pawns move forward to empty cells and capture diagonally forward
+        byte pawn = PieceStore.code(PieceType.PAWN, this.color);
+        int pawnY = y - forward(this.color);
+        if (capture) {
+            if (this.positions.getCode(x - 1, pawnY) == pawn) {
+                addEvasion(x - 1, pawnY, true);
+            }
+            if (this.positions.getCode(x + 1, pawnY) == pawn) {
+                addEvasion(x + 1, pawnY, true);
+            }
+        } else if (this.positions.getCode(x, pawnY) == pawn) {
+            addEvasion(x, pawnY, false);
+        }
+    }
+
+    /**
+     * adds move that parries check to counts of piece, unless piece is pinned.
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param capture boolean, true if move captures the checker
+     */
+    private void addEvasion(int x, int y, boolean capture) {
+        if (getPinDirection(x, y) >= 0) {
+            return;
+        }
+        this.evasions.merge(index(x, y), MoveCounts.pack(1, capture ? 1 : 0),
+                (a, b) -> MoveCounts.pack(MoveCounts.moves(a) + MoveCounts.moves(b),
+                        MoveCounts.captures(a) + MoveCounts.captures(b)));
+    }
+
+    /**
+     * used to get direction from the king to the piece if piece is pinned.
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @return int, index of direction in MoveOffsets.DIRECTIONS, -1 if piece is not pinned
+     */
+    private int getPinDirection(int x, int y) {
+        int index = index(x, y);
+        for (int i = 0; i < this.pinned.length; i++) {
+            if (this.pinned[i] == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * shows if the king is attacked.
+     * @return boolean, true if at least one enemy piece attacks the king
      */
-    Knight(PiecePosition piecePosition, PieceColor pieceColor) {
-        super(piecePosition, pieceColor);
+    public boolean isInCheck() {
+        return this.checkers > 0;
     }
 
     /**
-     * writes into possiblePositions all reachable positions by this piece.
-     * @param boardSize size of a bord
+     * restricts counts of own piece to legal moves.
+     * @param type PieceType, type of piece
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param counts long, counts of all moves of piece packed by MoveCounts
+     * @return long, counts of legal moves packed by MoveCounts
      */
-    protected void calculatePossiblePositions(int boardSize) {
-        int x = this.position.getX();
-        int y = this.position.getY();
+    public long getLegalCounts(PieceType type, int x, int y, long counts) {
+        if (type == PieceType.KING) {
+            return this.kingCounts;
+        }
+        if (this.checkers > 1) {  // only the king can escape double check
+            return 0;
+        }
+        if (this.checkers == 1) {
+            Long parried = this.evasions.get(index(x, y));
+            return parried == null ? 0 : parried;
+        }
+        int pin = getPinDirection(x, y);
+        return pin < 0 ? counts : getPinnedCounts(type, x, y, pin);
+    }
 
-        // all possible moves for Knight
-        PiecePosition[] moves = {
-                new PiecePosition(x + 2, y + 1),
-                new PiecePosition(x + 2, y - 1),
-                new PiecePosition(x - 2, y + 1),
-                new PiecePosition(x - 2, y - 1),
-                new PiecePosition(x + 1, y + 2),
-                new PiecePosition(x + 1, y - 2),
-                new PiecePosition(x - 1, y + 2),
-                new PiecePosition(x - 1, y - 2),
-        };
-        List<PiecePosition> result = new ArrayList<>();  // array for positions that belong to board
-        for (PiecePosition piecePosition: moves) {
-            if (piecePosition.isValid(boardSize)) {  // if position after considered move remains on board
-                result.add(piecePosition);
+    /**
+     * counts moves of pinned piece, which stay on the line between the king and the pinner.
+     * @param type PieceType, type of piece
+     * @param x int, X-coordinate of piece
+     * @param y int, Y-coordinate of piece
+     * @param pin int, direction from the king to the piece
+     * @return long, counts packed by MoveCounts
+     */
+    private long getPinnedCounts(PieceType type, int x, int y, int pin) {
+        int offsetX = MoveOffsets.DIRECTIONS.getX(pin);
+        int offsetY = MoveOffsets.DIRECTIONS.getY(pin);
+        if (type == PieceType.PAWN) {
+            int pawnForward = forward(this.color);
+            if (offsetX == 0) {  // pinned along its column, can only move forward
+                boolean free = this.positions.getColor(x, y + pawnForward) == null
+                        && PiecePosition.isValid(x, y + pawnForward, this.geometry.getSize());
+                return MoveCounts.pack(free ? 1 : 0, 0);
             }
+            // pinned along diagonal, can only capture the pinner right next to it
+            boolean capture = offsetY == pawnForward && this.positions.getBlockerDistance(x, y, pin) == 1;
+            return capture ? MoveCounts.pack(1, 1) : 0;
+        }
+        if (!slides(PieceStore.code(type, this.color), pin)) {
+            return 0;
         }
-        this.possiblePositions = new ArrayList<>(result);  // updating private variable
+        // towards the pinner up to its capture and towards the king up to the cell next to it
+        int toPinner = this.positions.getBlockerDistance(x, y, pin);
+        int toKing = this.positions.getBlockerDistance(x, y,
+                MoveOffsets.opposite(pin));
+        return MoveCounts.pack(toPinner + toKing - 1, 1);
     }
 }
 
 
 /**
- * represents King chess piece.
+ * keeps released boards to reuse their storages for next boards of the same size and backend.
+ * pool can be shared between threads
  */
-class King extends ChessPiece {
-   /**
-     * creates a King chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
+class BoardPool {
+    /**
+     * maximal number of idle boards kept for every size and backend.
      */
-    King(PiecePosition piecePosition, PieceColor pieceColor) {
-        super(piecePosition, pieceColor);
-    }
+    private final int capacity;
+    /**
+     * idle boards by key made of size and backend, bounded queues keep at most capacity boards.
+     */
+    private final ConcurrentHashMap<Integer, ArrayBlockingQueue<Board>> idle = new ConcurrentHashMap<>();
 
     /**
-     * writes into possiblePositions all reachable positions by this piece.
-     * @param boardSize size of a bord
+     * creates an empty pool.
+     * @param boardsPerKey maximal number of idle boards kept for every size and backend, at least one is kept
      */
-    protected void calculatePossiblePositions(int boardSize) {
-        int x = this.position.getX();
-        int y = this.position.getY();
+    BoardPool(int boardsPerKey) {
+        this.capacity = Math.max(1, boardsPerKey);
+    }
 
-        List<PiecePosition> moves = new ArrayList<>();
+    /**
+     * used to get an empty board, reused one if possible.
+     * @param boardSize size of the board
+     * @param backend storage backend
+     * @return Board without pieces
+     * @throws InvalidBoardSizeException if size is too low or too high
+     */
+    public Board acquire(int boardSize, BoardBackend backend) throws InvalidBoardSizeException {
+        ArrayBlockingQueue<Board> boards = this.idle.get(key(boardSize, backend));
+        Board board = boards == null ? null : boards.poll();
+        if (board == null) {
+            return new Board(boardSize, backend);
+        }
+        return board;
+    }
 
-        for (int dx = -1; dx < 2; dx++) {  // bias in x
-            for (int dy = -1; dy < 2; dy++) {  // bias in y
-                // trying all possible variants
-                PiecePosition piecePosition = new PiecePosition(x + dx, y + dy);
-                if (piecePosition.isValid(boardSize) && (dx != 0 || dy != 0)) {
-                    moves.add(piecePosition);
-                }
-            }
+    /**
+     * used to return board into pool, board must not be used by caller afterwards.
+     * @param board Board
+     */
+    public void release(Board board) {
+        ArrayBlockingQueue<Board> boards = this.idle.computeIfAbsent(key(board.getSize(), board.getBackend()),
+                k -> new ArrayBlockingQueue<>(this.capacity));
+        if (boards.remainingCapacity() > 0) {  // only a hint to skip reset, offer itself keeps the bound
+            board.reset();
+            boards.offer(board);
         }
+    }
 
-        this.possiblePositions = new ArrayList<>(moves);
+    /**
+     * used to build key of pool.
+     * @param boardSize size of the board
+     * @param backend storage backend
+     * @return int, key
+     */
+    private static int key(int boardSize, BoardBackend backend) {
+        return boardSize * BoardBackend.values().length + backend.ordinal();
     }
 }
 
 
 /**
- * represents Pawn chess piece.
+ * keeps counts of recently evaluated positions, so that repeated position is not evaluated again.
+ * positions are looked up by size and Zobrist hash of the board, stored pieces are compared on hit,
+ * so hash collisions never return wrong counts. counts are kept by cell, so they are returned
+ * in input order of the new board even if pieces were listed in another order.
+ * eviction follows CLOCK: hits only set flag of entry, hand clears flags and evicts the first entry without it.
+ * cache can be shared between threads
  */
-class Pawn extends ChessPiece {
+class ResultCache {
     /**
-     * creates a Pawn chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
+     * positions with more pieces are not cached, evaluation of them is dominated by parsing anyway.
      */
-    Pawn(PiecePosition piecePosition, PieceColor pieceColor) {
-        super(piecePosition, pieceColor);
-    }
+    static final int MAXIMAL_PIECES = 1 << 12;
 
-    @Override  // redundant here (useful for King & Knight)
-    protected void calculatePossiblePositions(int boardSize) {
-        return;
+    /**
+     * represents cached position with counts of its pieces.
+     */
+    private static final class Entry {
+        /**
+         * size of the board.
+         */
+        private final int size;
+        /**
+         * packed indices (x - 1) * size + (y - 1) of occupied cells in increasing order.
+         */
+        private final int[] cells;
+        /**
+         * codes of pieces on cells.
+         */
+        private final byte[] codes;
+        /**
+         * moves and captures of piece on i-th cell at 2 * i and 2 * i + 1.
+         */
+        private final int[] counts;
+        /**
+         * set on every hit, cleared by the hand of the clock.
+         */
+        private volatile boolean referenced = false;
+
+        /**
+         * creates an entry.
+         * @param boardSize int, size of the board
+         * @param occupied int[], sorted packed indices of cells
+         * @param pieceCodes byte[], codes of pieces on cells
+         * @param cellCounts int[], counts of pieces on cells
+         */
+        Entry(int boardSize, int[] occupied, byte[] pieceCodes, int[] cellCounts) {
+            this.size = boardSize;
+            this.cells = occupied;
+            this.codes = pieceCodes;
+            this.counts = cellCounts;
+        }
     }
 
     /**
-     * used to calculate number of possible moves for Pawn.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return number of possible moves
+     * cached entries by key made of size and hash.
      */
-    @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int result;  // return value
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * keys of entries in slots of the clock, null for empty slot.
+     */
+    private final Long[] slots;
+    /**
+     * index of slot under the hand of the clock.
+     */
+    private int hand = 0;
 
-        int direction;  // +1 means forward, -1 - backwards
-        if (this.color == PieceColor.WHITE) {
-            direction = 1;
-        } else {
-            direction = -1;
-        }
+    /**
+     * creates an empty cache.
+     * @param capacity int, maximal number of cached positions
+     */
+    ResultCache(int capacity) {
+        this.slots = new Long[capacity];
+    }
 
-        PiecePosition moveForward = new PiecePosition(this.position.getX(), this.position.getY() + direction);
-        ChessPiece pieceInFront = positions.get(moveForward.toString());
+    /**
+     * used to build key of position.
+     * @param board Board, board with all pieces placed
+     * @return long, key
+     */
+    private static long key(Board board) {
+        return Zobrist.mix(board.getHash() + board.getSize());
+    }
 
-        if (moveForward.isValid(boardSize) && pieceInFront == null) {  // if cell in forward direction is empty
-            result = 1;
-        } else {
-            result = 0;
+    /**
+     * used to get counts of position if it was cached.
+     * @param board Board, board with all pieces placed
+     * @param pieces PieceStore, all pieces placed on board
+     * @return int[], moves and captures of i-th piece at 2 * i and 2 * i + 1, null if position is not cached
+     */
+    public int[] get(Board board, PieceStore pieces) {
+        Entry entry = this.entries.get(key(board));
+        int[] counts = entry == null ? null : match(entry, board.getSize(), pieces);
+        if (counts == null) {
+            EngineMetrics.count(EngineMetrics.Counter.CACHE_MISSES, 1);
+            return null;
         }
-
-        return result + getCapturesCount(positions, boardSize);  // because captures also can be counted as moves
+        entry.referenced = true;
+        EngineMetrics.count(EngineMetrics.Counter.CACHE_HITS, 1);
+        return counts;
     }
 
     /**
-     * used to calculate number of possible captures for Pawn.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible captures
+     * compares position of entry with pieces and takes their counts from it.
+     * @param entry Entry, cached position
+     * @param size int, size of the board
+     * @param pieces PieceStore, all pieces placed on board
+     * @return int[], counts of pieces in their order, null if positions differ
      */
-    @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int result = 0;  // return value
-
-        int direction;  // +1 means forward, -1 - backwards
-        if (this.color == PieceColor.WHITE) {
-            direction = 1;
-        } else {
-            direction = -1;
+    private static int[] match(Entry entry, int size, PieceStore pieces) {
+        if (entry.size != size || entry.cells.length != pieces.size()) {
+            return null;
         }
+        int[] counts = new int[2 * pieces.size()];
+        for (int i = 0; i < pieces.size(); i++) {
+            int cell = Arrays.binarySearch(entry.cells, (pieces.getX(i) - 1) * size + pieces.getY(i) - 1);
+            if (cell < 0 || entry.codes[cell] != PieceStore.code(pieces.getType(i), pieces.getColor(i))) {
+                return null;
+            }
+            counts[2 * i] = entry.counts[2 * cell];
+            counts[2 * i + 1] = entry.counts[2 * cell + 1];
+        }
+        return counts;
+    }
 
-        // positions that can be attacked by Pawn
-        PiecePosition move1 = new PiecePosition(this.position.getX() - 1, this.position.getY() + direction);
-        PiecePosition move2 = new PiecePosition(this.position.getX() + 1, this.position.getY() + direction);
-        // chess pieces on attacked positions
-        ChessPiece piece1 = positions.get(move1.toString());
-        ChessPiece piece2 = positions.get(move2.toString());
-
-        if (move1.isValid(boardSize) && piece1 != null && this.color != piece1.getColor()) {
-            // if cell is valid and there is a piece of another color
-            result++;
+    /**
+     * caches counts of position, the oldest entry not used since the last pass of the hand is evicted.
+     * @param board Board, board with all pieces placed
+     * @param pieces PieceStore, all pieces placed on board
+     * @param counts int[], moves and captures of i-th piece at 2 * i and 2 * i + 1
+     */
+    public void put(Board board, PieceStore pieces, int[] counts) {
+        if (pieces.size() > MAXIMAL_PIECES || this.slots.length == 0) {
+            return;
+        }
+        int size = board.getSize();
+        long[] order = new long[pieces.size()];  // cell in high bits, index of piece in low bits
+        for (int i = 0; i < pieces.size(); i++) {
+            order[i] = (long) ((pieces.getX(i) - 1) * size + pieces.getY(i) - 1) << Integer.SIZE | i;
         }
-        if (move2.isValid(boardSize) && piece2 != null && this.color != piece2.getColor()) {
-            result++;
+        Arrays.sort(order);
+        int[] cells = new int[order.length];
+        byte[] codes = new byte[order.length];
+        int[] cellCounts = new int[2 * order.length];
+        for (int k = 0; k < order.length; k++) {
+            int i = (int) order[k];
+            cells[k] = (int) (order[k] >>> Integer.SIZE);
+            codes[k] = PieceStore.code(pieces.getType(i), pieces.getColor(i));
+            cellCounts[2 * k] = counts[2 * i];
+            cellCounts[2 * k + 1] = counts[2 * i + 1];
         }
+        Long key = key(board);
+        Entry entry = new Entry(size, cells, codes, cellCounts);
 
-        return result;
+        synchronized (this.slots) {
+            if (this.entries.put(key, entry) != null) {  // same key keeps its slot
+                return;
+            }
+            while (true) {
+                Long victim = this.slots[this.hand];
+                Entry old = victim == null ? null : this.entries.get(victim);
+                if (old != null && old.referenced) {  // second chance
+                    old.referenced = false;
+                } else {
+                    if (victim != null) {
+                        this.entries.remove(victim);
+                    }
+                    this.slots[this.hand] = key;
+                    this.hand = (this.hand + 1) % this.slots.length;
+                    return;
+                }
+                this.hand = (this.hand + 1) % this.slots.length;
+            }
+        }
     }
 }
 
 
 /**
- * represents Bishop chess piece.
+ * evaluates many boards given in single input: sections in the format of input.txt separated by blank lines.
+ * sections are evaluated in parallel and results are written in input order, separated by blank lines.
+ * every section gets its own result, malformed section is reported as invalid input
  */
-class Bishop extends ChessPiece implements BishopMovement {
+class BatchProcessor {
     /**
-     * creates a Bishop chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
+     * engine used for every section.
      */
-    Bishop(PiecePosition piecePosition, PieceColor pieceColor) {
-        super(piecePosition, pieceColor);
-    }
-
-    @Override  // redundant here (useful for King & Knight)
-    protected void calculatePossiblePositions(int boardSize) {
-        return;
-    }
+    private final ChessEngine engine;
 
     /**
-     * used to calculate number of possible moves for Bishop.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible moves
+     * creates a processor.
+     * @param chessEngine engine used for every section, it should be backed by pool of boards
      */
-    @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalMovesCount(this.position, this.color, positions, boardSize);
+    BatchProcessor(ChessEngine chessEngine) {
+        this.engine = chessEngine;
     }
 
     /**
-     * used to calculate number of possible captures for Bishop.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible captures
+     * evaluates all sections of input and writes their results.
+     * @param input stream with sections
+     * @param writer destination of results
+     * @throws IOException if input can not be read or output can not be written
      */
-    @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalCapturesCount(this.position, this.color, positions, boardSize);
-    }
-}
+    public void process(InputStream input, ResultWriter writer) throws IOException {
+        byte[] bytes = readAll(input);
+        List<int[]> sections = split(bytes);
 
+        List<Callable<EvaluationResult>> tasks = new ArrayList<>(sections.size());
+        for (int[] section: sections) {
+            tasks.add(() -> evaluate(bytes, section[0], section[1]));
+        }
+        List<Future<EvaluationResult>> results = ForkJoinPool.commonPool().invokeAll(tasks);
 
-/**
- * represents Rook chess piece.
- */
-class Rook extends ChessPiece implements RookMovement {
-    /**
-     * creates a Rook chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
-     */
-    Rook(PiecePosition piecePosition, PieceColor pieceColor) {
-        super(piecePosition, pieceColor);
-    }
-
-    @Override  // redundant here (useful for King & Knight)
-    protected void calculatePossiblePositions(int boardSize) {
-        return;
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) {
+                writer.writeLine("");
+            }
+            try {
+                results.get(i).get().writeTo(writer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
     }
 
     /**
-     * used to calculate number of possible moves for Rook.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible moves
+     * evaluates single section.
+     * @param bytes byte[], whole input
+     * @param from int, start of section (inclusive)
+     * @param to int, end of section (exclusive)
+     * @return EvaluationResult
+     * @throws IOException never, section is already in memory
      */
-    @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getOrthogonalMovesCount(this.position, this.color, positions, boardSize);
+    private EvaluationResult evaluate(byte[] bytes, int from, int to) throws IOException {
+        return this.engine.evaluateLenient(new ByteArrayInputStream(bytes, from, to - from));
     }
 
     /**
-     * used to calculate number of possible captures for Rook.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible captures
+     * used to split input into sections, one for every board.
+     * section starts with size line and count line and takes the following piece lines, blank lines inside
+     * board do not split it. section ends at blank lines followed by the next board, i.e. by a number
+     * or by any line followed by a number: piece lines are never numbers, size and count lines always are.
+     * boards with missing, extra or malformed piece lines still give exactly one result each,
+     * the same as in single-board mode
+     * @param bytes byte[], whole input
+     * @return List<int[]>, start (inclusive) and end (exclusive) of every section
      */
-    @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getOrthogonalCapturesCount(this.position, this.color, positions, boardSize);
-    }
-}
+    static List<int[]> split(byte[] bytes) {
+        // bounds of lines: start (inclusive) and end without separator (exclusive)
+        List<int[]> lines = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n' && bytes[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            lines.add(new int[] {lineStart, lineEnd});
+            lineStart = lineEnd;
+            if (lineStart < bytes.length && bytes[lineStart] == '\r') {
+                lineStart++;
+            }
+            if (lineStart < bytes.length && bytes[lineStart] == '\n') {
+                lineStart++;
+            }
+        }
 
+        List<int[]> sections = new ArrayList<>();
+        int i = 0;
+        while (true) {
+            while (i < lines.size() && isBlank(bytes, lines.get(i))) {  // blank lines between sections
+                i++;
+            }
+            if (i == lines.size()) {
+                return sections;
+            }
+            int sectionStart = lines.get(i)[0];
+            int sectionEnd = lines.get(i)[1];
+            i++;  // size line
+            if (i < lines.size()) {  // count line, even if it is blank
+                sectionEnd = lines.get(i)[1];
+                i++;
+            }
+            while (i < lines.size()) {
+                if (isBlank(bytes, lines.get(i))) {
+                    int next = i;
+                    while (next < lines.size() && isBlank(bytes, lines.get(next))) {
+                        next++;
+                    }
+                    if (next == lines.size() || isNumber(bytes, lines.get(next))
+                            || next + 1 < lines.size() && isNumber(bytes, lines.get(next + 1))) {
+                        break;  // size line or count line of the next board
+                    }
+                    i = next;  // blank lines inside board
+                } else {
+                    sectionEnd = lines.get(i)[1];
+                    i++;
+                }
+            }
+            sections.add(new int[] {sectionStart, sectionEnd});
+        }
+    }
 
-/**
- * represents Queen chess piece.
- */
-class Queen extends ChessPiece implements BishopMovement, RookMovement {
     /**
-     * creates a Queen chess piece with specified position and color.
-     * @param piecePosition position on the board
-     * @param pieceColor color of a piece
+     * checks that line consists of spaces and tabs only.
+     * @param bytes byte[], whole input
+     * @param line int[], start and end of line
+     * @return boolean, true if line is blank
      */
-    Queen(PiecePosition piecePosition, PieceColor pieceColor) {
-        super(piecePosition, pieceColor);
-    }
-
-    @Override  // redundant here (useful for King & Knight)
-    protected void calculatePossiblePositions(int boardSize) {
-        return;
+    private static boolean isBlank(byte[] bytes, int[] line) {
+        for (int i = line[0]; i < line[1]; i++) {
+            if (bytes[i] != ' ' && bytes[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * used to calculate number of possible moves for Queen.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible moves
+     * checks that line is a number, as size and count lines are, surrounding spaces and tabs are allowed.
+     * @param bytes byte[], whole input
+     * @param line int[], start and end of line
+     * @return boolean, true if line is parsed as integer
      */
-    @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalMovesCount(this.position, this.color, positions, boardSize)
-                + getOrthogonalMovesCount(this.position, this.color, positions, boardSize);
+    private static boolean isNumber(byte[] bytes, int[] line) {
+        int from = line[0];
+        int to = line[1];
+        while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) {
+            from++;
+        }
+        while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) {
+            to--;
+        }
+        try {
+            InputReader.parseInt(bytes, from, to);
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
     }
 
     /**
-     * used to calculate number of possible captures for Queen.
-     * @param positions Map<String, ChessPiece>, positions of pieces on board
-     * @param boardSize int, size of board
-     * @return int, number of possible captures
+     * reads the whole stream.
+     * @param input stream
+     * @return byte[], all bytes of stream
+     * @throws IOException if stream can not be read
      */
-    @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalCapturesCount(this.position, this.color, positions, boardSize)
-                + getOrthogonalCapturesCount(this.position, this.color, positions, boardSize);
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            result.write(buffer, 0, read);
+        }
+        return result.toByteArray();
     }
 }
 
 
-class Board {
+/**
+ * keeps engine warm between evaluations: listens on localhost TCP port and evaluates one board per connection.
+ * client sends board in the format of input.txt and closes its output (e.g. nc -N localhost 7777 < input.txt),
+ * server replies in the format of output.txt and closes the connection.
+ * every connection is served by its own virtual thread when JVM has them, by one of bounded pool of threads
+ * otherwise. connection that sends nothing for READ_TIMEOUT is dropped
+ */
+class DaemonServer implements AutoCloseable {
     /**
-     * map to access chess pieces by position string.
+     * milliseconds a connection may stay silent before it is dropped, so idle clients do not hold threads.
      */
-    private Map<String, ChessPiece> positionsToPieces = new HashMap<>();
+    static final int READ_TIMEOUT = 30_000;
     /**
-     * size of the board.
+     * upper bound for number of pooled threads when JVM has no virtual threads, further connections wait.
      */
-    private final int size;
+    static final int MAXIMAL_POOLED_THREADS = 64;
 
     /**
-     * shows if white king is already on board.
-     */
-    private boolean hasWhiteKing = false;
-    /**
-     * shows if black king is already on board.
+     * engine shared by all connections, it should be backed by pool of boards.
      */
-    private boolean hasBlackKing = false;
-
+    private final ChessEngine engine;
     /**
-     * lower bound for size of the board.
+     * socket accepting connections.
      */
-    private static final int MINIMAL_SIZE = 3;
+    private final ServerSocket server;
     /**
-     * upper bound for size of the board.
+     * runs handlers of connections.
      */
-    private static final int MAXIMAL_SIZE = 1000;
+    private final ExecutorService executor = newExecutor();
 
     /**
-     * creates a Board with specified size.
-     * @param boardSize size of the board
-     * @throws InvalidBoardSizeException if size is too low or too high
+     * creates a server bound to loopback address.
+     * @param chessEngine engine shared by all connections
+     * @param port int, port to listen on, 0 for any free port
+     * @throws IOException if port can not be bound
      */
-    Board(int boardSize) throws InvalidBoardSizeException {
-        if (boardSize < MINIMAL_SIZE || boardSize > MAXIMAL_SIZE) {
-            throw new InvalidBoardSizeException();
-        }
-        this.size = boardSize;
+    DaemonServer(ChessEngine chessEngine, int port) throws IOException {
+        this.engine = chessEngine;
+        this.server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
     }
 
     /**
-     * used to calculate number of possible moves for chess piece.
-     * @param piece considered chess piece
-     * @return number of possible moves for chess piece
+     * getter for port the server listens on.
+     * @return int
      */
-    public int getPiecePossibleMoveCount(ChessPiece piece) {
-        return piece.getMovesCount(this.positionsToPieces, this.size);
+    public int getPort() {
+        return this.server.getLocalPort();
     }
 
     /**
-     * used to calculate number of possible captures for chess piece.
-     * @param piece considered chess piece
-     * @return number of possible captures for chess piece
+     * accepts connections until server is closed.
+     * @throws IOException if connection can not be accepted
      */
-    public int getPiecePossibleCapturesCount(ChessPiece piece) {
-        return piece.getCapturesCount(this.positionsToPieces, this.size);
+    public void serve() throws IOException {
+        while (!this.server.isClosed()) {
+            Socket client;
+            try {
+                client = this.server.accept();
+            } catch (IOException e) {
+                if (this.server.isClosed()) {  // closed by another thread
+                    return;
+                }
+                throw e;
+            }
+            client.setTcpNoDelay(true);
+            this.executor.execute(() -> handle(client));
+        }
     }
 
     /**
-     * used to add chess pieces on board.
-     * @param piece ChessPiece
-     * @throws InvalidPiecePositionException if piece's cell is already occupied
-     * @throws InvalidGivenKingsException if extra kings are given
+     * evaluates board of single connection and sends its result.
+     * @param client Socket, accepted connection
      */
-    public void addPiece(ChessPiece piece) throws InvalidPiecePositionException, InvalidGivenKingsException {
-        PiecePosition position = piece.getPosition();
-        // checking kings on the board
-        if (piece.getClass().getName().equals("King")) {
-            if (piece.getColor() == PieceColor.WHITE) {
-                if (hasWhiteKing) {  // there is white king already
-                    throw new InvalidGivenKingsException();
-                }
-                hasWhiteKing = true;
-            } else {
-                if (hasBlackKing) {  // there is black king already
-                    throw new InvalidGivenKingsException();
-                }
-                hasBlackKing = true;
-            }
+    private void handle(Socket client) {
+        try (Socket socket = client;
+             ResultWriter writer = new StreamResultWriter(socket.getOutputStream())) {
+            socket.setSoTimeout(READ_TIMEOUT);
+            this.engine.evaluateLenient(socket.getInputStream()).writeTo(writer);
+        } catch (IOException e) {
+            return;  // client has gone or timed out, there is nobody to report to
         }
+    }
 
-        if (this.positionsToPieces.get(position.toString()) != null) {
-            // if cell is already occupied
-            throw new InvalidPiecePositionException();
+    /**
+     * used to create executor with virtual thread per task, they are looked up reflectively to run on Java 8.
+     * @return ExecutorService
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {  // JVM before 21
+            return Executors.newFixedThreadPool(MAXIMAL_POOLED_THREADS);
         }
+    }
 
-        this.positionsToPieces.put(position.toString(), piece);
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        this.executor.shutdown();
     }
+}
 
+
+/**
+ * base of exceptions that report invalid input.
+ * they are thrown for every malformed board and caught right away, so stack trace is never filled
+ */
+abstract class StacklessException extends Exception {
     /**
-     * used to get chess piece by its position.
-     * @param position PiecePosition
-     * @return ChessPiece
+     * version of serialized form.
      */
-    public ChessPiece getPiece(PiecePosition position) {
-        return this.positionsToPieces.get(position.toString());
-    }
+    private static final long serialVersionUID = 1L;
 
     /**
-     * used to check if all kings are given.
-     * @throws InvalidGivenKingsException if not all kings are given
+     * creates an exception without stack trace and suppressed exceptions.
      */
-    public void checkKings() throws InvalidGivenKingsException {
-        if (!(hasWhiteKing && hasBlackKing)) {
-            throw new InvalidGivenKingsException();
-        }
+    StacklessException() {
+        super(null, null, false, false);
     }
 }
 
 
-class InvalidBoardSizeException extends Exception {
+class InvalidBoardSizeException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid board size";
@@ -976,7 +6682,7 @@ class InvalidBoardSizeException extends Exception {
 }
 
 
-class InvalidNumberOfPiecesException extends Exception {
+class InvalidNumberOfPiecesException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid number of pieces";
@@ -984,7 +6690,7 @@ class InvalidNumberOfPiecesException extends Exception {
 }
 
 
-class InvalidPieceNameException extends Exception {
+class InvalidPieceNameException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid piece name";
@@ -992,7 +6698,7 @@ class InvalidPieceNameException extends Exception {
 }
 
 
-class InvalidPieceColorException extends Exception {
+class InvalidPieceColorException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid piece color";
@@ -1000,7 +6706,7 @@ class InvalidPieceColorException extends Exception {
 }
 
 
-class InvalidPiecePositionException extends Exception {
+class InvalidPiecePositionException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid piece position";
@@ -1008,7 +6714,7 @@ class InvalidPiecePositionException extends Exception {
 }
 
 
-class InvalidGivenKingsException extends Exception {
+class InvalidGivenKingsException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid given Kings";
@@ -1016,7 +6722,7 @@ class InvalidGivenKingsException extends Exception {
 }
 
 
-class InvalidInputException extends Exception {
+class InvalidInputException extends StacklessException {
     @Override
     public String getMessage() {
         return "Invalid input";